@@ -0,0 +1,39 @@
+package com.ai.assistant.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "document.bulk-import")
+public class BulkImportConfig {
+
+    /**
+     * 归档或目录中单个文件的大小上限（MB），超过的文件跳过
+     */
+    private long maxFileSizeMb = 100L;
+
+    /**
+     * 单次导入的文件数上限
+     */
+    private int maxFiles = 100000;
+
+    /**
+     * 每批登记的文档数，同一批在一个事务内写入并创建入库任务
+     */
+    private int batchSize = 200;
+
+    /**
+     * 允许按服务器本地目录导入的根目录；为空时不开放目录导入
+     */
+    private List<String> allowedRoots = new ArrayList<>();
+
+    /**
+     * 保留进度信息的最近导入数
+     */
+    private int retainedImports = 100;
+}
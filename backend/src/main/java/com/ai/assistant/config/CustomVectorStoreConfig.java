@@ -0,0 +1,185 @@
+package com.ai.assistant.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "custom-vector-store")
+public class CustomVectorStoreConfig {
+    
+    /**
+     * 向量段文件存储路径
+     */
+    private String path = "uploads/custom-vector-store";
+    
+    /**
+     * 常驻内存索引的内存预算（MB），超出后淘汰最久未访问的知识库
+     */
+    private Long memoryBudgetMb = 1024L;
+    
+    /**
+     * 预写日志配置
+     */
+    private Wal wal = new Wal();
+    
+    /**
+     * 多知识库并发检索配置
+     */
+    private Search search = new Search();
+    
+    /**
+     * HNSW近似检索配置
+     */
+    private Hnsw hnsw = new Hnsw();
+    
+    /**
+     * IVF-PQ近似检索配置（面向百万级向量的知识库）
+     */
+    private IvfPq ivfPq = new IvfPq();
+    
+    /**
+     * 量化存储配置
+     */
+    private Quantization quantization = new Quantization();
+    
+    /**
+     * BM25关键词检索与混合检索配置
+     */
+    private Lexical lexical = new Lexical();
+    
+    @Data
+    public static class Wal {
+        
+        /**
+         * 后台把预写日志写回向量段的间隔（秒）
+         */
+        private long compactIntervalSeconds = 30L;
+        
+        /**
+         * 单个知识库的预写日志超过该大小（MB）时立即写回
+         */
+        private long maxSizeMb = 64L;
+    }
+    
+    @Data
+    public static class Search {
+        
+        /**
+         * 检索线程数
+         */
+        private int parallelism = Math.max(2, Runtime.getRuntime().availableProcessors());
+        
+        /**
+         * 等待检索的任务队列长度，排满时新的检索任务被拒绝，对应知识库不计入本次结果
+         */
+        private int queueCapacity = 256;
+        
+        /**
+         * 单次查询的截止时间（毫秒），届时未完成的知识库不计入结果
+         */
+        private long timeoutMs = 2000L;
+    }
+    
+    @Data
+    public static class Hnsw {
+        
+        /**
+         * 是否启用HNSW索引
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 每个节点的最大邻居数（第0层为两倍）
+         */
+        private int m = 16;
+        
+        /**
+         * 建图时的候选队列大小
+         */
+        private int efConstruction = 200;
+        
+        /**
+         * 查询时的候选队列大小，越大召回越高、越慢
+         */
+        private int efSearch = 100;
+        
+        /**
+         * 向量数低于该值的知识库直接精确检索，不建图
+         */
+        private int minVectors = 10000;
+    }
+    
+    @Data
+    public static class IvfPq {
+        
+        /**
+         * 是否启用IVF-PQ索引，启用后达到阈值的知识库改用IVF-PQ代替HNSW
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 存活向量数达到该值时在后台训练IVF-PQ索引
+         */
+        private int minVectors = 500000;
+        
+        /**
+         * 粗聚类中心（倒排列表）数量，训练样本不足时自动减少
+         */
+        private int nlist = 1024;
+        
+        /**
+         * 乘积量化的子向量段数（每行编码字节数），取不超过该值的维度约数
+         */
+        private int subQuantizers = 64;
+        
+        /**
+         * 查询时扫描的倒排列表数，越大召回越高、越慢
+         */
+        private int nprobe = 16;
+        
+        /**
+         * 训练抽样的向量数
+         */
+        private int trainSampleSize = 32768;
+        
+        /**
+         * k-means 迭代次数
+         */
+        private int trainIterations = 10;
+        
+        /**
+         * 存活向量数增长到训练时的该倍数后重新训练
+         */
+        private double retrainGrowthRatio = 2.0;
+    }
+    
+    @Data
+    public static class Quantization {
+        
+        /**
+         * INT8 知识库检索时的候选放大倍数，候选用原始向量精排后取topK；1 表示不精排
+         */
+        private int rerankMultiplier = 4;
+    }
+    
+    @Data
+    public static class Lexical {
+        
+        /**
+         * 是否启用BM25关键词检索，启用后RAG检索把关键词结果与向量结果按倒数排名融合
+         */
+        private boolean enabled = true;
+        
+        /**
+         * 倒数排名融合的平滑常数k，融合得分为各路 1/(k+名次) 之和
+         */
+        private int rrfK = 60;
+        
+        /**
+         * 两路检索各取topK的该倍数作为融合候选
+         */
+        private int candidateMultiplier = 2;
+    }
+}
@@ -0,0 +1,122 @@
+package com.ai.assistant.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "embedding")
+public class EmbeddingConfig {
+
+    /**
+     * 查询向量缓存配置
+     */
+    private QueryCache queryCache = new QueryCache();
+
+    /**
+     * 文本块嵌入向量缓存（embedding_cache 表）配置
+     */
+    private ChunkCache chunkCache = new ChunkCache();
+
+    /**
+     * 批量嵌入的分批与并发配置
+     */
+    private Batch batch = new Batch();
+
+    /**
+     * 跨调用方的微批合并配置
+     */
+    private MicroBatch microBatch = new MicroBatch();
+
+    @Data
+    public static class QueryCache {
+
+        /**
+         * 是否缓存检索查询的嵌入向量
+         */
+        private boolean enabled = true;
+
+        /**
+         * 最多缓存的查询数，超出后淘汰最久未使用的
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * 缓存有效期（分钟）
+         */
+        private long ttlMinutes = 1440L;
+
+        /**
+         * 持久化文件路径，关闭时写入、启动时加载；为空时不持久化
+         */
+        private String persistPath = "uploads/embedding-cache/query-embeddings.bin";
+    }
+
+    @Data
+    public static class ChunkCache {
+
+        /**
+         * 缓存向量的保留天数，超过后由定时清理删除；0 表示不清理
+         */
+        private int maxAgeDays = 90;
+
+        /**
+         * 定时清理的间隔（小时）
+         */
+        private long purgeIntervalHours = 24L;
+
+        /**
+         * 每次删除的行数，分批删除避免长时间锁表
+         */
+        private int purgeBatchSize = 5000;
+    }
+
+    @Data
+    public static class Batch {
+
+        /**
+         * 单次请求的最大文本数
+         */
+        private int maxInputsPerRequest = 64;
+
+        /**
+         * 单次请求的估算token上限
+         */
+        private int maxTokensPerRequest = 8000;
+
+        /**
+         * 每个提供商同时进行的请求数
+         */
+        private int concurrencyPerProvider = 4;
+
+        /**
+         * 被限流（HTTP 429）后的最大重试次数
+         */
+        private int maxRetries = 5;
+
+        /**
+         * 首次重试的等待时间（毫秒），之后每次翻倍；响应带 Retry-After 时以其为准
+         */
+        private long initialBackoffMs = 1000L;
+
+        /**
+         * 单次重试的最长等待时间（毫秒）
+         */
+        private long maxBackoffMs = 30000L;
+    }
+
+    @Data
+    public static class MicroBatch {
+
+        /**
+         * 是否把并发到达的小批量嵌入请求合并发送
+         */
+        private boolean enabled = true;
+
+        /**
+         * 等待窗口（毫秒），窗口内同一模型的请求合并为一次调用
+         */
+        private long lingerMs = 20L;
+    }
+}
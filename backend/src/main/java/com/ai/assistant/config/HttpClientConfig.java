@@ -0,0 +1,46 @@
+package com.ai.assistant.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "http-client")
+public class HttpClientConfig {
+
+    /**
+     * 每个目标主机的最大连接数
+     */
+    private int maxConnectionsPerHost = 50;
+
+    /**
+     * 连接池已满时等待空闲连接的最长时间（秒）
+     */
+    private long pendingAcquireTimeoutSeconds = 60L;
+
+    /**
+     * 空闲连接保活时间（秒），超过后关闭
+     */
+    private long keepAliveSeconds = 60L;
+
+    /**
+     * 单个连接的最长存活时间（秒），到期后不再复用，便于跟随服务端的DNS切换
+     */
+    private long maxLifeSeconds = 600L;
+
+    /**
+     * 建立连接超时（秒）
+     */
+    private long connectTimeoutSeconds = 30L;
+
+    /**
+     * 两次读取响应数据之间的最长间隔（秒），流式响应按每个数据块计算
+     */
+    private long responseTimeoutSeconds = 300L;
+
+    /**
+     * HTTPS 连接是否协商 HTTP/2，服务端支持时同一连接上多路复用多个请求
+     */
+    private boolean http2Enabled = true;
+}
@@ -0,0 +1,107 @@
+package com.ai.assistant.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 文档入库流水线配置
+ *
+ * 提取、切块、嵌入、写入四个阶段各自一个线程池和有界队列，下游队列满时上游阻塞等待。
+ * 待处理文档记录在 ingestion_jobs 表中，各实例按租约领取，失败按退避时间重试。
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "document.ingestion")
+public class IngestionConfig {
+
+    /**
+     * 文本提取线程数，0 表示取 CPU 核数
+     */
+    private int extractThreads = 0;
+
+    /**
+     * 切块线程数，0 表示取 CPU 核数
+     */
+    private int chunkThreads = 0;
+
+    /**
+     * 嵌入线程数，以等待网络为主，可远大于核数
+     */
+    private int embedThreads = 8;
+
+    /**
+     * 写入数据库和向量存储的线程数
+     */
+    private int persistThreads = 2;
+
+    /**
+     * 提取阶段的队列容量，即可排队等待处理的文档数
+     */
+    private int queueCapacity = 1000;
+
+    /**
+     * 其余阶段的队列容量，每项持有一篇文档的全文或块，不宜过大
+     */
+    private int stageQueueCapacity = 16;
+
+    /**
+     * 每个实例同时在流水线中处理的任务数上限
+     */
+    private int maxInFlight = 64;
+
+    /**
+     * 轮询待处理任务的间隔（毫秒）
+     */
+    private long pollIntervalMs = 5000L;
+
+    /**
+     * 为缺少任务记录的待处理文档补建任务的间隔（秒），在轮询时检查
+     */
+    private long backfillIntervalSeconds = 300L;
+
+    /**
+     * 任务租约时长（秒），实例停止续约超过该时间后任务由其他实例接管
+     */
+    private long leaseSeconds = 120L;
+
+    /**
+     * 续约间隔（秒），应明显小于租约时长
+     */
+    private long heartbeatSeconds = 30L;
+
+    /**
+     * 最大尝试次数，超过后文档标记为 FAILED
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * 首次重试的等待时间（秒），之后每次翻倍
+     */
+    private long retryBackoffSeconds = 30L;
+
+    /**
+     * 单次重试的最长等待时间（秒）
+     */
+    private long maxRetryBackoffSeconds = 3600L;
+
+    /**
+     * PDF 按页窗口提取和切块，每个窗口的页数
+     */
+    private int pdfWindowPages = 20;
+
+    /**
+     * 解析 PDF 时堆内缓冲的上限（MB），超出部分写入临时文件；0 表示全部使用临时文件
+     */
+    private long pdfMaxMainMemoryMb = 16L;
+
+    /**
+     * PDF 页窗口提取线程池的线程数，所有文档共用，0 表示取 CPU 核数
+     */
+    private int pdfExtractThreads = 0;
+
+    /**
+     * 单篇 PDF 同时并行提取的页窗口数上限，避免一篇大文档占满提取线程
+     */
+    private int pdfMaxParallelism = 4;
+}
@@ -11,11 +11,14 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +35,14 @@ public class ChatController {
     private final DocumentExtractorService documentExtractorService;
     private final KnowledgeBaseChatService knowledgeBaseChatService;
     
+    private static final String THINKING_PREFIX = "[[THINKING]]";
+    
+    /**
+     * 回答块合并：最多合并的块数和最长等待时间
+     */
+    private static final int COALESCE_MAX_CHUNKS = 32;
+    private static final Duration COALESCE_WINDOW = Duration.ofMillis(50);
+    
     @GetMapping("/messages/{sessionId}")
     public ResponseEntity<List<MessageDTO>> getMessages(@PathVariable String sessionId) {
         return ResponseEntity.ok(chatService.getMessages(sessionId));
@@ -121,7 +132,7 @@ public class ChatController {
      * 流式聊天（支持附件）
      */
     @PostMapping(value = "/stream-with-attachments", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter streamChatWithAttachments(
+    public Flux<ServerSentEvent<Object>> streamChatWithAttachments(
             @RequestParam String sessionId,
             @RequestParam String content,
             @RequestParam String modelId,
@@ -133,15 +144,6 @@ public class ChatController {
         log.info("Content: {}", content.length() > 100 ? content.substring(0, 100) + "..." : content);
         log.info("Images: {}", images != null ? images.length : 0);
         
-        SseEmitter emitter = new SseEmitter(300000L); // 5 minutes timeout
-        
-        emitter.onCompletion(() -> log.info("✓ SSE 连接完成 - sessionId: {}", sessionId));
-        emitter.onTimeout(() -> {
-            log.warn("⚠ SSE 连接超时 - sessionId: {}", sessionId);
-            emitter.complete();
-        });
-        emitter.onError(e -> log.error("✗ SSE 连接错误 - sessionId: {}, error: {}", sessionId, e.getMessage()));
-        
         // 处理图片附件
         List<MessageDTO.AttachmentDTO> attachments = new ArrayList<>();
         if (images != null && images.length > 0) {
@@ -162,48 +164,11 @@ public class ChatController {
             }
         }
         
-        chatService.streamChat(sessionId, content, modelId, attachments)
-                .doOnSubscribe(s -> log.info("开始订阅流式响应..."))
-                .doOnNext(chunk -> {
-                    if (chunk != null && !chunk.isEmpty()) {
-                        log.debug("→ 发送数据块: {} 字符", chunk.length());
-                    }
-                })
-                .doOnComplete(() -> log.info("✓ 流式响应完成"))
-                .doOnError(error -> log.error("✗ 流式响应错误: {}", error.getMessage(), error))
-                .subscribe(
-                        chunk -> {
-                            try {
-                                if (chunk != null && !chunk.isEmpty()) {
-                                    emitter.send(SseEmitter.event().data(chunk));
-                                }
-                            } catch (IOException e) {
-                                log.error("发送SSE数据失败", e);
-                                emitter.completeWithError(e);
-                            }
-                        },
-                        error -> {
-                            log.error("订阅错误", error);
-                            try {
-                                emitter.send(SseEmitter.event()
-                                        .name("error")
-                                        .data(Map.of("message", error.getMessage())));
-                            } catch (IOException ignored) {}
-                            emitter.completeWithError(error);
-                        },
-                        () -> {
-                            try {
-                                emitter.send(SseEmitter.event().name("done").data(""));
-                            } catch (IOException ignored) {}
-                            emitter.complete();
-                        }
-                );
-        
-        return emitter;
+        return toEventStream(chatService.streamChat(sessionId, content, modelId, attachments), sessionId);
     }
     
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter streamChat(
+    public Flux<ServerSentEvent<Object>> streamChat(
             @RequestParam String sessionId,
             @RequestParam String content,
             @RequestParam String modelId,
@@ -215,88 +180,13 @@ public class ChatController {
         log.info("Content: {}", content.length() > 100 ? content.substring(0, 100) + "..." : content);
         log.info("Extracted Content: {}", extractedContent != null ? extractedContent.length() + " 字符" : "无");
         
-        SseEmitter emitter = new SseEmitter(300000L); // 5 minutes timeout
-        
-        emitter.onCompletion(() -> log.info("✓ SSE 连接完成 - sessionId: {}", sessionId));
-        emitter.onTimeout(() -> {
-            log.warn("⚠ SSE 连接超时 - sessionId: {}", sessionId);
-            emitter.complete();
-        });
-        emitter.onError(e -> log.error("✗ SSE 连接错误 - sessionId: {}, error: {}", sessionId, e.getMessage()));
-        
         // 使用增强服务（支持真正的多模态）
-        enhancedChatService.streamChat(sessionId, content, modelId, null, extractedContent)
-                .doOnSubscribe(s -> log.info("开始订阅流式响应..."))
-                .doOnNext(chunk -> {
-                    if (chunk != null && !chunk.isEmpty()) {
-                        log.debug("→ 发送数据块: {} 字符", chunk.length());
-                    }
-                })
-                .doOnComplete(() -> log.info("✓ 流式响应完成"))
-                .doOnError(error -> log.error("✗ 流式响应错误: {}", error.getMessage(), error))
-                .subscribe(
-                        chunk -> {
-                            try {
-                                if (chunk != null && !chunk.isEmpty()) {
-                                    emitter.send(SseEmitter.event().data(chunk));
-                                }
-                            } catch (IOException e) {
-                                log.error("发送SSE数据失败", e);
-                                emitter.completeWithError(e);
-                            }
-                        },
-                        error -> {
-                            log.error("订阅错误", error);
-                            try {
-                                emitter.send(SseEmitter.event()
-                                        .name("error")
-                                        .data(Map.of("message", error.getMessage())));
-                            } catch (IOException ignored) {}
-                            emitter.completeWithError(error);
-                        },
-                        () -> {
-                            try {
-                                emitter.send(SseEmitter.event().name("done").data(""));
-                            } catch (IOException ignored) {}
-                            emitter.complete();
-                        }
-                );
-        
-        return emitter;
+        return toEventStream(enhancedChatService.streamChat(sessionId, content, modelId, null, extractedContent), sessionId);
     }
     
     @PostMapping("/regenerate/{messageId}")
-    public SseEmitter regenerateMessage(@PathVariable String messageId) {
-        SseEmitter emitter = new SseEmitter(300000L);
-        
-        chatService.regenerateMessage(messageId)
-                .subscribe(
-                        chunk -> {
-                            try {
-                                if (chunk != null && !chunk.isEmpty()) {
-                                    emitter.send(SseEmitter.event().data(chunk));
-                                }
-                            } catch (IOException e) {
-                                emitter.completeWithError(e);
-                            }
-                        },
-                        error -> {
-                            try {
-                                emitter.send(SseEmitter.event()
-                                        .name("error")
-                                        .data(Map.of("message", error.getMessage())));
-                            } catch (IOException ignored) {}
-                            emitter.completeWithError(error);
-                        },
-                        () -> {
-                            try {
-                                emitter.send(SseEmitter.event().name("done").data(""));
-                            } catch (IOException ignored) {}
-                            emitter.complete();
-                        }
-                );
-        
-        return emitter;
+    public Flux<ServerSentEvent<Object>> regenerateMessage(@PathVariable String messageId) {
+        return toEventStream(chatService.regenerateMessage(messageId), messageId);
     }
     
     @PostMapping("/messages/{messageId}/rate")
@@ -311,7 +201,7 @@ public class ChatController {
      * 带知识库的流式对话
      */
     @GetMapping(value = "/with-knowledge", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter chatWithKnowledge(
+    public Flux<ServerSentEvent<Object>> chatWithKnowledge(
             @RequestParam String sessionId,
             @RequestParam String content,
             @RequestParam String modelId) {
@@ -321,45 +211,7 @@ public class ChatController {
         log.info("Model ID: {}", modelId);
         log.info("Content: {}", content);
         
-        SseEmitter emitter = new SseEmitter(300000L);
-        
-        emitter.onCompletion(() -> log.info("✓ 知识库对话完成 - sessionId: {}", sessionId));
-        emitter.onTimeout(() -> {
-            log.warn("⚠ 知识库对话超时 - sessionId: {}", sessionId);
-            emitter.complete();
-        });
-        emitter.onError(e -> log.error("✗ 知识库对话错误 - sessionId: {}, error: {}", sessionId, e.getMessage()));
-        
-        knowledgeBaseChatService.chatWithKnowledge(sessionId, content, modelId)
-                .subscribe(
-                        chunk -> {
-                            try {
-                                if (chunk != null && !chunk.isEmpty()) {
-                                    emitter.send(SseEmitter.event().data(chunk));
-                                }
-                            } catch (IOException e) {
-                                log.error("发送SSE数据失败", e);
-                                emitter.completeWithError(e);
-                            }
-                        },
-                        error -> {
-                            log.error("知识库对话错误", error);
-                            try {
-                                emitter.send(SseEmitter.event()
-                                        .name("error")
-                                        .data(Map.of("message", error.getMessage())));
-                            } catch (IOException ignored) {}
-                            emitter.completeWithError(error);
-                        },
-                        () -> {
-                            try {
-                                emitter.send(SseEmitter.event().name("done").data(""));
-                            } catch (IOException ignored) {}
-                            emitter.complete();
-                        }
-                );
-        
-        return emitter;
+        return toEventStream(knowledgeBaseChatService.chatWithKnowledge(sessionId, content, modelId), sessionId);
     }
     
     /**
@@ -370,4 +222,51 @@ public class ChatController {
         List<Map<String, Object>> citations = knowledgeBaseChatService.getCitations(messageId);
         return ResponseEntity.ok(citations);
     }
+    
+    /**
+     * 把回答块流转换为 SSE 事件流
+     *
+     * 由 Spring MVC 直接订阅，数据到达时才占用线程写出；客户端断开时取消订阅，取消信号一直传到模型提供商的请求。
+     * 短时间内到达的相邻块合并为一个事件写出（思考内容和正式回答分开合并），减少逐 token 的写出和刷新。
+     * 正常结束时追加 done 事件，出错时以 error 事件结束。
+     */
+    private Flux<ServerSentEvent<Object>> toEventStream(Flux<String> chunks, String streamId) {
+        return chunks
+                .filter(chunk -> !chunk.isEmpty())
+                .bufferTimeout(COALESCE_MAX_CHUNKS, COALESCE_WINDOW)
+                .concatMapIterable(ChatController::coalesce)
+                .map(chunk -> ServerSentEvent.<Object>builder(chunk).build())
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.<Object>builder("").event("done").build()))
+                .onErrorResume(error -> {
+                    log.error("✗ 流式响应错误 - {}: {}", streamId, error.getMessage(), error);
+                    return Mono.just(ServerSentEvent.<Object>builder(Map.of("message", String.valueOf(error.getMessage())))
+                            .event("error")
+                            .build());
+                })
+                .doOnComplete(() -> log.info("✓ SSE 连接完成 - {}", streamId))
+                .doOnCancel(() -> log.info("⚠ 客户端已断开，取消流式响应 - {}", streamId));
+    }
+    
+    /**
+     * 合并一批回答块中相邻的同类块，思考内容保留一个 [[THINKING]] 前缀
+     */
+    private static List<String> coalesce(List<String> batch) {
+        List<String> merged = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean currentThinking = false;
+        for (String chunk : batch) {
+            boolean thinking = chunk.startsWith(THINKING_PREFIX);
+            String text = thinking ? chunk.substring(THINKING_PREFIX.length()) : chunk;
+            if (current.length() > 0 && thinking != currentThinking) {
+                merged.add(currentThinking ? THINKING_PREFIX + current : current.toString());
+                current.setLength(0);
+            }
+            currentThinking = thinking;
+            current.append(text);
+        }
+        if (current.length() > 0) {
+            merged.add(currentThinking ? THINKING_PREFIX + current : current.toString());
+        }
+        return merged;
+    }
 }
@@ -1,12 +1,15 @@
 package com.ai.assistant.controller;
 
+import com.ai.assistant.dto.BulkImportDTO;
 import com.ai.assistant.dto.DocumentDTO;
 import com.ai.assistant.entity.Document;
 import com.ai.assistant.entity.DocumentChunk;
 import com.ai.assistant.mapper.DocumentChunkMapper;
+import com.ai.assistant.service.BulkImportService;
 import com.ai.assistant.service.DocumentService;
-import com.ai.assistant.service.DocumentVectorizationService;
+import com.ai.assistant.service.IngestionJobService;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -16,6 +19,7 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -25,7 +29,8 @@ import java.util.stream.Collectors;
 public class DocumentController {
     
     private final DocumentService documentService;
-    private final DocumentVectorizationService documentVectorizationService;
+    private final IngestionJobService ingestionJobService;
+    private final BulkImportService bulkImportService;
     private final DocumentChunkMapper documentChunkMapper;
     
     @PostMapping("/upload")
@@ -43,11 +48,44 @@ public class DocumentController {
         Document document = documentService.upload(knowledgeBaseId, file, tagList, category);
         
         // 异步处理文档
-        documentVectorizationService.processDocument(document.getId());
+        ingestionJobService.enqueue(document.getId());
         
         return ResponseEntity.ok(documentService.toDTO(document));
     }
     
+    /**
+     * 批量导入：请求体为 zip / tar / tar.gz 归档的原始字节流，保存后在后台解包，通过导入ID查询进度
+     */
+    @PostMapping("/bulk-import")
+    public ResponseEntity<BulkImportDTO> bulkImport(
+            @RequestParam String knowledgeBaseId,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) String tags,
+            @RequestParam(required = false) String category,
+            HttpServletRequest request) throws IOException {
+        
+        String archiveFormat = format != null ? format : formatOf(request.getContentType());
+        BulkImportDTO result = bulkImportService.importArchive(
+                knowledgeBaseId, request.getInputStream(), archiveFormat, parseTags(tags), category);
+        return ResponseEntity.ok(result);
+    }
+    
+    /**
+     * 批量导入服务器本地目录，后台执行，通过导入ID查询进度
+     */
+    @PostMapping("/bulk-import/directory")
+    public ResponseEntity<BulkImportDTO> bulkImportDirectory(@RequestBody Map<String, String> request) {
+        BulkImportDTO result = bulkImportService.importDirectory(
+                request.get("knowledgeBaseId"), request.get("path"),
+                parseTags(request.get("tags")), request.get("category"));
+        return ResponseEntity.ok(result);
+    }
+    
+    @GetMapping("/bulk-import/{importId}")
+    public ResponseEntity<BulkImportDTO> getBulkImport(@PathVariable String importId) {
+        return ResponseEntity.ok(bulkImportService.getImport(importId));
+    }
+    
     @GetMapping
     public ResponseEntity<List<DocumentDTO>> list(@RequestParam String knowledgeBaseId) {
         List<Document> documents = documentService.listByKnowledgeBase(knowledgeBaseId);
@@ -103,16 +141,35 @@ public class DocumentController {
         documentService.updateStatus(id, "PENDING", null);
         documentService.updateChunkCount(id, 0);
         
-        // 删除旧的文档块
-        LambdaQueryWrapper<DocumentChunk> wrapper = new LambdaQueryWrapper<>();
-        wrapper.eq(DocumentChunk::getDocumentId, id);
-        documentChunkMapper.delete(wrapper);
-        
-        // 重新触发异步处理
-        documentVectorizationService.processDocument(id);
+        // 重新触发异步处理；旧的文档块和向量由入库任务在提取阶段一并清理
+        ingestionJobService.enqueue(id);
         
         // 返回更新后的文档信息
         document = documentService.getById(id);
         return ResponseEntity.ok(documentService.toDTO(document));
     }
+    
+    private List<String> parseTags(String tags) {
+        if (tags == null || tags.isEmpty()) {
+            return null;
+        }
+        return Arrays.asList(tags.split(","));
+    }
+    
+    /**
+     * 未显式指定格式时按 Content-Type 推断
+     */
+    private String formatOf(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String type = contentType.toLowerCase();
+        if (type.contains("x-tar")) {
+            return "tar";
+        }
+        if (type.contains("gzip")) {
+            return "tar.gz";
+        }
+        return "zip";
+    }
 }
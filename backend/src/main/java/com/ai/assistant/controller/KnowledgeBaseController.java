@@ -2,7 +2,9 @@ package com.ai.assistant.controller;
 
 import com.ai.assistant.dto.KnowledgeBaseDTO;
 import com.ai.assistant.entity.KnowledgeBase;
+import com.ai.assistant.service.CustomVectorStoreService;
 import com.ai.assistant.service.KnowledgeBaseService;
+import com.ai.assistant.service.QueryEmbeddingCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -19,6 +21,8 @@ import java.util.Map;
 public class KnowledgeBaseController {
     
     private final KnowledgeBaseService knowledgeBaseService;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final CustomVectorStoreService customVectorStoreService;
     
     @PostMapping
     public ResponseEntity<KnowledgeBase> create(@Validated @RequestBody KnowledgeBaseDTO dto) {
@@ -32,6 +36,14 @@ public class KnowledgeBaseController {
         return ResponseEntity.ok(knowledgeBases);
     }
     
+    /**
+     * 查询向量缓存的命中统计
+     */
+    @GetMapping("/embedding-cache/stats")
+    public ResponseEntity<Map<String, Object>> embeddingCacheStats() {
+        return ResponseEntity.ok(queryEmbeddingCache.stats());
+    }
+    
     @GetMapping("/{id}")
     public ResponseEntity<KnowledgeBase> getById(@PathVariable String id) {
         KnowledgeBase knowledgeBase = knowledgeBaseService.getById(id);
@@ -55,6 +67,15 @@ public class KnowledgeBaseController {
         return ResponseEntity.ok().build();
     }
     
+    /**
+     * 修复或替换向量段文件后重新加载之前加载失败的知识库
+     */
+    @PostMapping("/{id}/vector-index/reload")
+    public ResponseEntity<Void> reloadVectorIndex(@PathVariable String id) {
+        customVectorStoreService.reloadIndex(id);
+        return ResponseEntity.ok().build();
+    }
+    
     @PostMapping("/{id}/associate-session")
     public ResponseEntity<Void> associateWithSession(
             @PathVariable String id,
@@ -0,0 +1,23 @@
+package com.ai.assistant.dto;
+
+import lombok.Data;
+import lombok.Builder;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+public class BulkImportDTO {
+    private String id;
+    private String knowledgeBaseId;
+    private String source;
+    private String state;  // RUNNING, COMPLETED, FAILED
+    private Integer registered;
+    private Integer skipped;
+    private List<String> skippedFiles;
+    private Map<String, Long> documentStatus;  // 已登记文档按处理状态计数
+    private String error;
+    private Long startedAt;
+    private Long finishedAt;
+}
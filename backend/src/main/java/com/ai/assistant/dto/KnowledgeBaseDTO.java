@@ -4,6 +4,7 @@ import lombok.Data;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
 
 @Data
 public class KnowledgeBaseDTO {
@@ -24,4 +25,7 @@ public class KnowledgeBaseDTO {
     
     @Min(value = 0, message = "分块重叠不能小于0")
     private Integer chunkOverlap = 50;
+    
+    @Pattern(regexp = "FLOAT32|INT8", message = "向量存储方式只能是 FLOAT32 或 INT8")
+    private String vectorStorageMode = "FLOAT32";
 }
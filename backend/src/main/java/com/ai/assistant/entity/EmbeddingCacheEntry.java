@@ -0,0 +1,31 @@
+package com.ai.assistant.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@TableName("embedding_cache")
+public class EmbeddingCacheEntry {
+    
+    @TableId(value = "content_hash", type = IdType.INPUT)
+    private String contentHash;
+    
+    @TableField("model_id")
+    private String modelId;
+    
+    private Integer dimension;
+    
+    private byte[] embedding;  // float32 little-endian
+    
+    @TableField("created_at")
+    private Long createdAt;
+}
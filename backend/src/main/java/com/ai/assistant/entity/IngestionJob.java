@@ -0,0 +1,49 @@
+package com.ai.assistant.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@TableName("ingestion_jobs")
+public class IngestionJob {
+    
+    @TableId(value = "document_id", type = IdType.INPUT)
+    private String documentId;
+    
+    private String status;  // PENDING, RUNNING, COMPLETED, FAILED
+    
+    private Integer attempts;
+    
+    @TableField("next_run_at")
+    private Long nextRunAt;
+    
+    @TableField("lease_owner")
+    private String leaseOwner;
+    
+    @TableField("lease_expires_at")
+    private Long leaseExpiresAt;
+    
+    @TableField("heartbeat_at")
+    private Long heartbeatAt;
+    
+    @TableField("last_error")
+    private String lastError;
+    
+    @TableField("rerun_requested")
+    private Boolean rerunRequested;  // 运行期间收到重新处理请求
+    
+    @TableField("created_at")
+    private Long createdAt;
+    
+    @TableField("updated_at")
+    private Long updatedAt;
+}
@@ -38,6 +38,9 @@ public class KnowledgeBase {
     @TableField("chunk_overlap")
     private Integer chunkOverlap;
     
+    @TableField("vector_storage_mode")
+    private String vectorStorageMode;
+    
     @TableField("created_at")
     private Long createdAt;
     
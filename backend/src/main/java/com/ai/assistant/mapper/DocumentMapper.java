@@ -2,8 +2,22 @@ package com.ai.assistant.mapper;
 
 import com.ai.assistant.entity.Document;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 @Mapper
 public interface DocumentMapper extends BaseMapper<Document> {
+    
+    /**
+     * 多行插入一批已分配ID的文档记录
+     */
+    @Insert("<script>INSERT INTO documents (id, knowledge_base_id, file_name, file_type, file_size, file_path, status, " +
+            "chunk_count, tags, category, created_at, updated_at) VALUES " +
+            "<foreach collection='documents' item='d' separator=','>(#{d.id}, #{d.knowledgeBaseId}, #{d.fileName}, " +
+            "#{d.fileType}, #{d.fileSize}, #{d.filePath}, #{d.status}, #{d.chunkCount}, #{d.tags}, #{d.category}, " +
+            "#{d.createdAt}, #{d.updatedAt})</foreach></script>")
+    int insertBatch(@Param("documents") List<Document> documents);
 }
@@ -0,0 +1,17 @@
+package com.ai.assistant.mapper;
+
+import com.ai.assistant.entity.EmbeddingCacheEntry;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface EmbeddingCacheMapper extends BaseMapper<EmbeddingCacheEntry> {
+    
+    /**
+     * 删除早于指定时间写入的缓存向量，每次最多 limit 行
+     */
+    @Delete("DELETE FROM embedding_cache WHERE created_at < #{cutoff} LIMIT #{limit}")
+    int deleteCreatedBefore(@Param("cutoff") long cutoff, @Param("limit") int limit);
+}
@@ -0,0 +1,88 @@
+package com.ai.assistant.mapper;
+
+import com.ai.assistant.entity.IngestionJob;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
+
+@Mapper
+public interface IngestionJobMapper extends BaseMapper<IngestionJob> {
+    
+    /**
+     * 可领取的任务：到期的待处理任务，以及租约已过期的运行中任务
+     */
+    @Select("SELECT * FROM ingestion_jobs WHERE (status = 'PENDING' AND next_run_at <= #{now}) " +
+            "OR (status = 'RUNNING' AND lease_expires_at < #{now}) ORDER BY next_run_at LIMIT #{limit}")
+    List<IngestionJob> findClaimable(@Param("now") long now, @Param("limit") int limit);
+    
+    /**
+     * 领取任务并取得租约；条件更新保证多个实例同时领取时只有一个成功。新的尝试已包含此前的重新处理请求，一并清除
+     */
+    @Update("UPDATE ingestion_jobs SET status = 'RUNNING', attempts = attempts + 1, lease_owner = #{owner}, " +
+            "rerun_requested = FALSE, " +
+            "lease_expires_at = #{leaseUntil}, heartbeat_at = #{now}, updated_at = #{now} " +
+            "WHERE document_id = #{documentId} AND ((status = 'PENDING' AND next_run_at <= #{now}) " +
+            "OR (status = 'RUNNING' AND lease_expires_at < #{now}))")
+    int claim(@Param("documentId") String documentId, @Param("owner") String owner,
+              @Param("now") long now, @Param("leaseUntil") long leaseUntil);
+    
+    /**
+     * 续约本实例持有的全部运行中任务
+     */
+    @Update("UPDATE ingestion_jobs SET lease_expires_at = #{leaseUntil}, heartbeat_at = #{now} " +
+            "WHERE status = 'RUNNING' AND lease_owner = #{owner}")
+    int renewLeases(@Param("owner") String owner, @Param("now") long now, @Param("leaseUntil") long leaseUntil);
+    
+    /**
+     * 结束本实例持有的任务并释放租约；租约已被其他实例接管或运行期间收到重新处理请求时不更新
+     */
+    @Update("UPDATE ingestion_jobs SET status = #{status}, next_run_at = #{nextRunAt}, last_error = #{lastError}, " +
+            "lease_owner = NULL, lease_expires_at = NULL, updated_at = #{now} " +
+            "WHERE document_id = #{documentId} AND lease_owner = #{owner} AND rerun_requested = FALSE")
+    int release(@Param("documentId") String documentId, @Param("owner") String owner, @Param("status") String status,
+                @Param("nextRunAt") long nextRunAt, @Param("lastError") String lastError, @Param("now") long now);
+    
+    /**
+     * 释放本实例持有、运行期间收到重新处理请求的任务，重置为立即可领取的待处理任务，尝试次数清零
+     */
+    @Update("UPDATE ingestion_jobs SET status = 'PENDING', attempts = 0, next_run_at = #{now}, last_error = NULL, " +
+            "rerun_requested = FALSE, lease_owner = NULL, lease_expires_at = NULL, updated_at = #{now} " +
+            "WHERE document_id = #{documentId} AND lease_owner = #{owner} AND rerun_requested = TRUE")
+    int releaseForRerun(@Param("documentId") String documentId, @Param("owner") String owner, @Param("now") long now);
+    
+    /**
+     * 为运行中的任务记录重新处理请求，由持有者在当前尝试结束后重新排队
+     */
+    @Update("UPDATE ingestion_jobs SET rerun_requested = TRUE, updated_at = #{now} " +
+            "WHERE document_id = #{documentId} AND status = 'RUNNING'")
+    int requestRerun(@Param("documentId") String documentId, @Param("now") long now);
+    
+    /**
+     * 重新排队：未在运行的已有任务重置为待处理，尝试次数清零
+     */
+    @Update("UPDATE ingestion_jobs SET status = 'PENDING', attempts = 0, next_run_at = #{now}, last_error = NULL, " +
+            "lease_owner = NULL, lease_expires_at = NULL, updated_at = #{now} " +
+            "WHERE document_id = #{documentId} AND status <> 'RUNNING'")
+    int requeue(@Param("documentId") String documentId, @Param("now") long now);
+    
+    /**
+     * 批量创建待处理任务（批量导入新登记的文档）
+     */
+    @Insert("<script>INSERT INTO ingestion_jobs (document_id, status, attempts, next_run_at, created_at, updated_at) VALUES " +
+            "<foreach collection='documentIds' item='id' separator=','>(#{id}, 'PENDING', 0, #{now}, #{now}, #{now})</foreach></script>")
+    int insertPendingJobs(@Param("documentIds") List<String> documentIds, @Param("now") long now);
+    
+    /**
+     * 为没有任务记录的待处理和处理中文档补建任务（引入任务表之前上传的文档，或重启前中断的处理）
+     */
+    @Insert("INSERT INTO ingestion_jobs (document_id, status, attempts, next_run_at, created_at, updated_at) " +
+            "SELECT d.id, 'PENDING', 0, #{now}, #{now}, #{now} FROM documents d " +
+            "WHERE d.status IN ('PENDING', 'PROCESSING') " +
+            "AND NOT EXISTS (SELECT 1 FROM ingestion_jobs j WHERE j.document_id = d.id)")
+    int insertMissingJobs(@Param("now") long now);
+}
@@ -0,0 +1,412 @@
+package com.ai.assistant.service;
+
+import com.ai.assistant.config.BulkImportConfig;
+import com.ai.assistant.dto.BulkImportDTO;
+import com.ai.assistant.entity.Document;
+import com.ai.assistant.mapper.DocumentMapper;
+import com.ai.assistant.mapper.KnowledgeBaseMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 知识库批量导入
+ *
+ * 上传的 zip / tar / tar.gz 归档先原样保存为临时文件，立即返回导入记录，再在后台逐个解包；
+ * 服务器本地目录同样在后台逐个读取。文件边读边写入上传目录，不在内存中缓存整个归档；
+ * 支持的文件按批登记为文档并创建入库任务，不支持、超限或为空的文件跳过并记录。
+ * 导入进度（已登记、已跳过、各处理状态的文档数）保存在内存中，保留最近若干次导入。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BulkImportService {
+
+    private static final int MAX_REPORTED_SKIPS = 100;
+    private static final int STATUS_QUERY_BATCH = 1000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final DocumentService documentService;
+    private final DocumentMapper documentMapper;
+    private final KnowledgeBaseMapper knowledgeBaseMapper;
+    private final IngestionJobService ingestionJobService;
+    private final BulkImportConfig config;
+
+    /**
+     * 最近的导入，按开始顺序排列，访问在自身上同步
+     */
+    private final Map<String, BulkImport> imports = new LinkedHashMap<>();
+
+    private final AtomicInteger importThreadCount = new AtomicInteger();
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "bulk-import-" + importThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class BulkImport {
+        private final String id = UUID.randomUUID().toString();
+        private final String knowledgeBaseId;
+        private final String source;
+        private final List<String> tags;
+        private final String category;
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicInteger registered = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final List<String> skippedFiles = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> documentIds = Collections.synchronizedList(new ArrayList<>());
+        private final List<Document> pending = new ArrayList<>();
+        private volatile String state = "RUNNING";
+        private volatile String error;
+        private volatile Long finishedAt;
+
+        BulkImport(String knowledgeBaseId, String source, List<String> tags, String category) {
+            this.knowledgeBaseId = knowledgeBaseId;
+            this.source = source;
+            this.tags = tags;
+            this.category = category;
+        }
+
+        void skip(String name, String reason) {
+            skipped.incrementAndGet();
+            if (skippedFiles.size() < MAX_REPORTED_SKIPS) {
+                skippedFiles.add(name + "（" + reason + "）");
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        importExecutor.shutdownNow();
+    }
+
+    /**
+     * 将请求体中的归档保存为临时文件后立即返回导入ID，在后台解包和登记；format 为 zip、tar 或 tar.gz
+     */
+    public BulkImportDTO importArchive(String knowledgeBaseId, InputStream in, String format,
+                                       List<String> tags, String category) throws IOException {
+        checkKnowledgeBase(knowledgeBaseId);
+        String normalized = format != null ? format.toLowerCase() : "zip";
+        if (!List.of("zip", "tar", "tar.gz", "tgz").contains(normalized)) {
+            throw new IllegalArgumentException("不支持的归档格式: " + format + "。支持的格式: zip, tar, tar.gz");
+        }
+
+        // 请求体只能在请求线程内读取，先原样落盘，解包交给后台
+        Path archive = Files.createTempFile("bulk-import-", "." + normalized);
+        try {
+            Files.copy(in, archive, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archive);
+            throw e;
+        }
+
+        BulkImport bulkImport = start(knowledgeBaseId, "archive:" + normalized, tags, category);
+        try {
+            importExecutor.execute(() -> {
+                try {
+                    run(bulkImport, () -> readArchive(bulkImport, archive, normalized));
+                } finally {
+                    deleteArchive(archive);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            deleteArchive(archive);
+            throw e;
+        }
+        return toDTO(bulkImport);
+    }
+
+    /**
+     * 在后台导入服务器本地目录（含子目录），立即返回导入ID；目录必须位于配置的允许根目录之下
+     */
+    public BulkImportDTO importDirectory(String knowledgeBaseId, String directory, List<String> tags, String category) {
+        checkKnowledgeBase(knowledgeBaseId);
+        Path root = resolveAllowedDirectory(directory);
+
+        BulkImport bulkImport = start(knowledgeBaseId, "directory:" + root, tags, category);
+        importExecutor.execute(() -> run(bulkImport, () -> readDirectory(bulkImport, root)));
+        return toDTO(bulkImport);
+    }
+
+    /**
+     * 查询导入进度
+     */
+    public BulkImportDTO getImport(String importId) {
+        BulkImport bulkImport;
+        synchronized (imports) {
+            bulkImport = imports.get(importId);
+        }
+        if (bulkImport == null) {
+            throw new IllegalArgumentException("导入记录不存在或已过期: " + importId);
+        }
+        return toDTO(bulkImport);
+    }
+
+    private interface ImportBody {
+        void run() throws IOException;
+    }
+
+    private void run(BulkImport bulkImport, ImportBody body) {
+        try {
+            body.run();
+            flush(bulkImport);
+            bulkImport.state = "COMPLETED";
+        } catch (Exception e) {
+            log.error("批量导入失败: {}", bulkImport.id, e);
+            // 已读完的文件照常登记，导入标记为失败
+            try {
+                flush(bulkImport);
+            } catch (Exception flushError) {
+                log.error("登记剩余文档失败: {}", bulkImport.id, flushError);
+            }
+            bulkImport.error = e.getMessage();
+            bulkImport.state = "FAILED";
+        } finally {
+            bulkImport.finishedAt = System.currentTimeMillis();
+            log.info("批量导入结束: {}，登记 {} 个，跳过 {} 个", bulkImport.id,
+                    bulkImport.registered.get(), bulkImport.skipped.get());
+        }
+    }
+
+    private void readArchive(BulkImport bulkImport, Path archive, String format) throws IOException {
+        try (InputStream in = Files.newInputStream(archive)) {
+            if ("zip".equals(format)) {
+                readZip(bulkImport, in);
+            } else {
+                readTar(bulkImport, "tar".equals(format) ? in : new GZIPInputStream(in, COPY_BUFFER_SIZE));
+            }
+        }
+    }
+
+    private void deleteArchive(Path archive) {
+        try {
+            Files.deleteIfExists(archive);
+        } catch (IOException e) {
+            log.warn("删除导入临时文件失败: {}", archive, e);
+        }
+    }
+
+    private void readZip(BulkImport bulkImport, InputStream in) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory()) {
+                importEntry(bulkImport, entry.getName(), zip, entry.getSize());
+            }
+        }
+    }
+
+    private void readTar(BulkImport bulkImport, InputStream in) throws IOException {
+        TarArchiveInputStream tar = new TarArchiveInputStream(in);
+        TarArchiveEntry entry;
+        while ((entry = tar.getNextTarEntry()) != null) {
+            if (entry.isFile()) {
+                importEntry(bulkImport, entry.getName(), tar, entry.getSize());
+            }
+        }
+    }
+
+    private void readDirectory(BulkImport bulkImport, Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                try (InputStream in = Files.newInputStream(file)) {
+                    importEntry(bulkImport, root.relativize(file).toString(), in, Files.size(file));
+                }
+            }
+        }
+    }
+
+    /**
+     * 导入一个文件：检查类型和大小，流式写入上传目录，加入待登记批次
+     */
+    private void importEntry(BulkImport bulkImport, String entryName, InputStream content, long declaredSize) throws IOException {
+        String name = entryName.replace('\\', '/');
+        String fileName = name.substring(name.lastIndexOf('/') + 1);
+        if (fileName.isEmpty() || fileName.startsWith(".") || name.startsWith("__MACOSX/")) {
+            return;
+        }
+        if (!documentService.isSupportedFile(fileName)) {
+            bulkImport.skip(name, "不支持的文件类型");
+            return;
+        }
+        long maxBytes = config.getMaxFileSizeMb() * 1024 * 1024;
+        if (declaredSize > maxBytes) {
+            bulkImport.skip(name, "超过 " + config.getMaxFileSizeMb() + "MB");
+            return;
+        }
+        if (bulkImport.registered.get() + bulkImport.pending.size() >= config.getMaxFiles()) {
+            throw new IllegalArgumentException("超过单次导入的文件数上限: " + config.getMaxFiles());
+        }
+
+        Path target = documentService.newStoragePath(fileName);
+        long size = copyLimited(content, target, maxBytes);
+        if (size <= 0) {
+            Files.deleteIfExists(target);
+            bulkImport.skip(name, size == 0 ? "空文件" : "超过 " + config.getMaxFileSizeMb() + "MB");
+            return;
+        }
+
+        bulkImport.pending.add(documentService.buildDocument(bulkImport.knowledgeBaseId, fileName, target.toString(),
+                size, bulkImport.tags, bulkImport.category));
+        if (bulkImport.pending.size() >= config.getBatchSize()) {
+            flush(bulkImport);
+        }
+    }
+
+    /**
+     * 复制到文件，超过上限时停止并返回 -1
+     */
+    private long copyLimited(InputStream in, Path target, long maxBytes) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > maxBytes) {
+                    return -1;
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 在一个事务内登记待登记批次的文档并创建入库任务；登记失败时删除这批已保存的文件
+     */
+    private void flush(BulkImport bulkImport) throws IOException {
+        List<Document> batch = bulkImport.pending;
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            documentService.registerBatch(batch);
+        } catch (RuntimeException e) {
+            for (Document document : batch) {
+                Files.deleteIfExists(Paths.get(document.getFilePath()));
+            }
+            batch.clear();
+            throw e;
+        }
+
+        List<String> ids = batch.stream().map(Document::getId).collect(Collectors.toList());
+        bulkImport.documentIds.addAll(ids);
+        bulkImport.registered.addAndGet(ids.size());
+        batch.clear();
+        ingestionJobService.wakeUp();
+    }
+
+    private BulkImport start(String knowledgeBaseId, String source, List<String> tags, String category) {
+        BulkImport bulkImport = new BulkImport(knowledgeBaseId, source, tags, category);
+        synchronized (imports) {
+            imports.put(bulkImport.id, bulkImport);
+            Iterator<BulkImport> eldest = imports.values().iterator();
+            while (imports.size() > Math.max(config.getRetainedImports(), 1) && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        log.info("开始批量导入: {}，知识库: {}，来源: {}", bulkImport.id, knowledgeBaseId, source);
+        return bulkImport;
+    }
+
+    private void checkKnowledgeBase(String knowledgeBaseId) {
+        if (knowledgeBaseMapper.selectById(knowledgeBaseId) == null) {
+            throw new IllegalArgumentException("知识库不存在: " + knowledgeBaseId);
+        }
+    }
+
+    private Path resolveAllowedDirectory(String directory) {
+        if (config.getAllowedRoots().isEmpty()) {
+            throw new IllegalArgumentException("未开放目录导入，请先配置 document.bulk-import.allowed-roots");
+        }
+        try {
+            Path root = Paths.get(directory).toRealPath();
+            if (!Files.isDirectory(root)) {
+                throw new IllegalArgumentException("不是目录: " + directory);
+            }
+            for (String allowed : config.getAllowedRoots()) {
+                Path allowedRoot = Paths.get(allowed).toAbsolutePath().normalize();
+                if (Files.exists(allowedRoot) && root.startsWith(allowedRoot.toRealPath())) {
+                    return root;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("目录不存在或无法访问: " + directory);
+        }
+        throw new IllegalArgumentException("目录不在允许导入的范围内: " + directory);
+    }
+
+    private BulkImportDTO toDTO(BulkImport bulkImport) {
+        List<String> ids;
+        synchronized (bulkImport.documentIds) {
+            ids = new ArrayList<>(bulkImport.documentIds);
+        }
+        List<String> skippedFiles;
+        synchronized (bulkImport.skippedFiles) {
+            skippedFiles = new ArrayList<>(bulkImport.skippedFiles);
+        }
+
+        return BulkImportDTO.builder()
+                .id(bulkImport.id)
+                .knowledgeBaseId(bulkImport.knowledgeBaseId)
+                .source(bulkImport.source)
+                .state(bulkImport.state)
+                .registered(bulkImport.registered.get())
+                .skipped(bulkImport.skipped.get())
+                .skippedFiles(skippedFiles)
+                .documentStatus(countByStatus(ids))
+                .error(bulkImport.error)
+                .startedAt(bulkImport.startedAt)
+                .finishedAt(bulkImport.finishedAt)
+                .build();
+    }
+
+    /**
+     * 按处理状态统计已登记文档数，已删除的文档不计入
+     */
+    private Map<String, Long> countByStatus(List<String> documentIds) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (int from = 0; from < documentIds.size(); from += STATUS_QUERY_BATCH) {
+            List<String> batch = documentIds.subList(from, Math.min(from + STATUS_QUERY_BATCH, documentIds.size()));
+            LambdaQueryWrapper<Document> wrapper = new LambdaQueryWrapper<>();
+            wrapper.select(Document::getId, Document::getStatus).in(Document::getId, batch);
+            for (Document document : documentMapper.selectList(wrapper)) {
+                counts.merge(document.getStatus(), 1L, Long::sum);
+            }
+        }
+        return counts;
+    }
+}
@@ -20,6 +20,7 @@ import reactor.core.publisher.Flux;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -31,6 +32,7 @@ public class ChatService {
     private final ModelProviderMapper modelProviderMapper;
     private final SessionService sessionService;
     private final ModelProviderService modelProviderService;
+    private final LlmHttpClients llmHttpClients;
     
     public List<MessageDTO> getMessages(String sessionId) {
         return messageMapper.findBySessionIdOrderByTimestampAsc(sessionId)
@@ -161,6 +163,26 @@ public class ChatService {
         String assistantMessageId = UUID.randomUUID().toString();
         StringBuilder responseBuilder = new StringBuilder();
         
+        // 正常结束和客户端中途断开时保存回答：在下游收到完成信号（done 事件）之前执行，出错时不保存
+        AtomicBoolean replySaved = new AtomicBoolean();
+        Runnable saveReply = () -> {
+            if (!replySaved.compareAndSet(false, true)) {
+                return;
+            }
+            log.info("✓ AI 响应完成，总长度: {} 字符", responseBuilder.length());
+            // Save assistant message
+            Message assistantMessage = new Message();
+            assistantMessage.setId(assistantMessageId);
+            assistantMessage.setSessionId(sessionId);
+            assistantMessage.setRole("ASSISTANT");
+            assistantMessage.setContent(responseBuilder.toString());
+            assistantMessage.setTimestamp(System.currentTimeMillis());
+            assistantMessage.setModelId(finalModelId);
+            messageMapper.insert(assistantMessage);
+            sessionService.updateSessionTimestamp(sessionId);
+            log.info("✓ 助手消息已保存");
+        };
+        
         log.info("开始流式调用 AI 模型...");
         return chatModel.stream(prompt)
                 .doOnSubscribe(s -> log.info("→ 已订阅流"))
@@ -176,19 +198,12 @@ public class ChatService {
                         log.debug("← 收到响应块: {} 字符", chunk.length());
                     }
                 })
-                .doOnComplete(() -> {
-                    log.info("✓ AI 响应完成，总长度: {} 字符", responseBuilder.length());
-                    // Save assistant message
-                    Message assistantMessage = new Message();
-                    assistantMessage.setId(assistantMessageId);
-                    assistantMessage.setSessionId(sessionId);
-                    assistantMessage.setRole("ASSISTANT");
-                    assistantMessage.setContent(responseBuilder.toString());
-                    assistantMessage.setTimestamp(System.currentTimeMillis());
-                    assistantMessage.setModelId(finalModelId);
-                    messageMapper.insert(assistantMessage);
-                    sessionService.updateSessionTimestamp(sessionId);
-                    log.info("✓ 助手消息已保存");
+                .doOnComplete(saveReply)
+                .doOnCancel(() -> {
+                    // 尚未生成内容时不保存
+                    if (responseBuilder.length() > 0) {
+                        saveReply.run();
+                    }
                 })
                 .doOnError(error -> {
                     log.error("✗ 流式调用错误: {}", error.getMessage(), error);
@@ -249,7 +264,7 @@ public class ChatService {
         String apiKey = provider.getApiKey();
         String baseUrl = provider.getBaseUrl() != null ? provider.getBaseUrl() : "https://api.openai.com";
         
-        OpenAiApi api = new OpenAiApi(baseUrl, apiKey);
+        OpenAiApi api = llmHttpClients.openAiApi(baseUrl, apiKey);
         
         String model = modelName != null ? modelName : 
                        (provider.getModelName() != null ? provider.getModelName() : "gpt-3.5-turbo");
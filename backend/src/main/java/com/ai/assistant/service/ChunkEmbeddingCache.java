@@ -0,0 +1,200 @@
+package com.ai.assistant.service;
+
+import com.ai.assistant.config.EmbeddingConfig;
+import com.ai.assistant.entity.EmbeddingCacheEntry;
+import com.ai.assistant.mapper.EmbeddingCacheMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按内容寻址的文本块嵌入向量缓存
+ *
+ * 以 SHA-256(嵌入来源 + 文本) 为主键把嵌入向量存入 embedding_cache 表。重新处理文档或重复上传相同文件时，
+ * 文本未变的块直接取库中的向量，只有新增或变化的块才请求嵌入接口；同一批内的重复文本也只嵌入一次。
+ * 嵌入来源是模型ID解析后的提供商、Base URL 和实际模型名（见 {@link EmbeddingService#embeddingSource}），
+ * 同名模型换了提供商或地址后按新来源重新嵌入，不会混入维度或语义不同的旧向量。
+ * 表中的向量按写入时间定时清理，超过保留天数的删除（包括已不再使用的来源留下的向量），之后用到时重新嵌入。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChunkEmbeddingCache {
+
+    /**
+     * 单次按主键批量查询的数量
+     */
+    private static final int LOOKUP_BATCH_SIZE = 500;
+
+    /**
+     * 启动后首次清理的延迟（分钟）
+     */
+    private static final long PURGE_INITIAL_DELAY_MINUTES = 5L;
+
+    private final EmbeddingCacheMapper embeddingCacheMapper;
+    private final EmbeddingService embeddingService;
+    private final EmbeddingConfig config;
+
+    private final ScheduledExecutorService purgeScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "embedding-cache-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        EmbeddingConfig.ChunkCache chunkCache = config.getChunkCache();
+        if (chunkCache.getMaxAgeDays() <= 0) {
+            return;
+        }
+        long interval = TimeUnit.HOURS.toMinutes(Math.max(chunkCache.getPurgeIntervalHours(), 1L));
+        purgeScheduler.scheduleWithFixedDelay(this::purgeExpired, PURGE_INITIAL_DELAY_MINUTES, interval, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        purgeScheduler.shutdownNow();
+    }
+
+    /**
+     * 批量取文本的嵌入向量，结果与输入一一对应
+     */
+    public List<float[]> embedBatch(List<String> texts, String modelId) {
+        EmbeddingService.EmbeddingSource source = embeddingService.embeddingSource(modelId);
+        String model = source.getModel();
+        List<String> hashes = new ArrayList<>(texts.size());
+        Map<String, String> textByHash = new LinkedHashMap<>();
+        for (String text : texts) {
+            String hash = contentHash(source.getKey(), text);
+            hashes.add(hash);
+            textByHash.putIfAbsent(hash, text);
+        }
+
+        Map<String, float[]> found = lookup(new ArrayList<>(textByHash.keySet()), model);
+
+        List<String> missingHashes = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+        for (Map.Entry<String, String> entry : textByHash.entrySet()) {
+            if (!found.containsKey(entry.getKey())) {
+                missingHashes.add(entry.getKey());
+                missingTexts.add(entry.getValue());
+            }
+        }
+        log.info("嵌入向量缓存：共 {} 个块，去重后 {} 个，命中 {} 个，需嵌入 {} 个",
+                texts.size(), textByHash.size(), found.size(), missingTexts.size());
+
+        if (!missingTexts.isEmpty()) {
+            List<float[]> embedded = embeddingService.embedBatch(missingTexts, modelId);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < missingHashes.size(); i++) {
+                found.put(missingHashes.get(i), embedded.get(i));
+                store(missingHashes.get(i), model, embedded.get(i), now);
+            }
+        }
+
+        List<float[]> results = new ArrayList<>(texts.size());
+        for (String hash : hashes) {
+            results.add(found.get(hash));
+        }
+        return results;
+    }
+
+    private Map<String, float[]> lookup(List<String> hashes, String model) {
+        Map<String, float[]> found = new HashMap<>();
+        for (int from = 0; from < hashes.size(); from += LOOKUP_BATCH_SIZE) {
+            List<String> batch = hashes.subList(from, Math.min(from + LOOKUP_BATCH_SIZE, hashes.size()));
+            try {
+                for (EmbeddingCacheEntry entry : embeddingCacheMapper.selectBatchIds(batch)) {
+                    if (model.equals(entry.getModelId())) {
+                        found.put(entry.getContentHash(), decode(entry.getEmbedding(), entry.getDimension()));
+                    }
+                }
+            } catch (Exception e) {
+                // 缓存不可用时退化为全部重新嵌入
+                log.warn("查询嵌入向量缓存失败: {}", e.getMessage());
+                return found;
+            }
+        }
+        return found;
+    }
+
+    private void store(String hash, String model, float[] embedding, long now) {
+        try {
+            embeddingCacheMapper.insert(EmbeddingCacheEntry.builder()
+                    .contentHash(hash)
+                    .modelId(model)
+                    .dimension(embedding.length)
+                    .embedding(encode(embedding))
+                    .createdAt(now)
+                    .build());
+        } catch (DuplicateKeyException e) {
+            // 并发处理的文档写入了同一文本的向量
+        } catch (Exception e) {
+            log.warn("写入嵌入向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 分批删除超过保留天数的缓存向量
+     */
+    private void purgeExpired() {
+        EmbeddingConfig.ChunkCache chunkCache = config.getChunkCache();
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(chunkCache.getMaxAgeDays());
+        int batchSize = Math.max(chunkCache.getPurgeBatchSize(), 1);
+        long total = 0;
+        try {
+            int deleted;
+            do {
+                deleted = embeddingCacheMapper.deleteCreatedBefore(cutoff, batchSize);
+                total += deleted;
+            } while (deleted >= batchSize && !Thread.currentThread().isInterrupted());
+            if (total > 0) {
+                log.info("清理过期的嵌入向量缓存 {} 条（早于 {} 天）", total, chunkCache.getMaxAgeDays());
+            }
+        } catch (Exception e) {
+            log.warn("清理嵌入向量缓存失败，已删除 {} 条: {}", total, e.getMessage());
+        }
+    }
+
+    static String contentHash(String sourceKey, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(sourceKey.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private static byte[] encode(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    private static float[] decode(byte[] bytes, int dimension) {
+        float[] embedding = new float[dimension];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+}
@@ -1,20 +1,57 @@
 package com.ai.assistant.service;
 
+import com.ai.assistant.config.CustomVectorStoreConfig;
+import com.ai.assistant.entity.KnowledgeBase;
+import com.ai.assistant.mapper.KnowledgeBaseMapper;
+import com.ai.assistant.vectorstore.Bm25Index;
+import com.ai.assistant.vectorstore.HnswIndex;
+import com.ai.assistant.vectorstore.IvfPqIndex;
+import com.ai.assistant.vectorstore.QueryVector;
+import com.ai.assistant.vectorstore.SearchFilter;
+import com.ai.assistant.vectorstore.StorageMode;
+import com.ai.assistant.vectorstore.TopKCollector;
+import com.ai.assistant.vectorstore.VectorIndex;
+import com.ai.assistant.vectorstore.VectorIndexCache;
+import com.ai.assistant.vectorstore.VectorSegment;
+import com.ai.assistant.vectorstore.VectorWal;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
  * 自定义向量存储服务
  * 不依赖Spring AI的VectorStore,直接管理向量数据
+ * 
+ * 每个知识库持久化为二进制向量段（{@link VectorSegment}）加预写日志（{@link VectorWal}），
+ * 访问时加载为常驻内存索引（{@link VectorIndex}），按内存预算淘汰，后台定期写回段文件。
+ * 同一知识库的写入、加载与写回由分段写锁串行化，检索读取已发布的快照，不加锁。
+ * 检索支持元数据过滤、关键词检索（{@link Bm25Index}）和多知识库并发检索；
+ * 大知识库改用近似索引（{@link HnswIndex}、{@link IvfPqIndex}）。
  */
 @Slf4j
 @Service
@@ -22,7 +59,90 @@ import java.util.stream.Collectors;
 public class CustomVectorStoreService {
     
     private final ObjectMapper objectMapper;
-    private static final String VECTOR_STORE_PATH = "uploads/custom-vector-store";
+    private final CustomVectorStoreConfig config;
+    private final KnowledgeBaseMapper knowledgeBaseMapper;
+    private static final String LEGACY_SUFFIX = ".json";
+    private static final String MIGRATED_SUFFIX = ".json.migrated";
+    
+    /**
+     * 墓碑行超过该比例时紧凑索引
+     */
+    private static final double COMPACT_DELETED_RATIO = 0.25;
+    
+    /**
+     * 过滤命中行不超过该比例时跳过近似索引，直接精确扫描命中行
+     */
+    private static final double FILTER_SCAN_RATIO = 0.1;
+    
+    /**
+     * 不设截止时间（单个知识库在调用线程检索时）
+     */
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    
+    /**
+     * 暴力扫描每隔多少行检查一次截止时间
+     */
+    private static final int DEADLINE_CHECK_ROWS = 1024;
+    
+    /**
+     * 常驻内存索引，按知识库ID缓存
+     */
+    private VectorIndexCache indexCache;
+    
+    /**
+     * 多知识库检索线程池，有界队列，排满时拒绝，被拒绝的知识库本次结果中不包含
+     */
+    private ThreadPoolExecutor searchExecutor;
+    
+    /**
+     * IVF-PQ后台训练线程，同一时间只训练一个知识库
+     */
+    private final ExecutorService ivfTrainer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "vector-ivf-train");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * 已提交训练、尚未完成的知识库
+     */
+    private final Set<String> ivfTraining = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 各知识库打开的预写日志
+     */
+    private final Map<String, VectorWal> wals = new ConcurrentHashMap<>();
+    
+    /**
+     * 预写日志中有尚未写回向量段的记录的知识库
+     */
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * 段文件存在但加载失败（文件损坏、行数不一致、日志无法重放）的知识库及失败原因。
+     * 在修复或重建前拒绝对其写入和写回，预写日志原样保留，避免用空索引覆盖磁盘上的数据
+     */
+    private final Map<String, String> loadFailures = new ConcurrentHashMap<>();
+    
+    /**
+     * 写锁分段数，知识库ID按哈希映射到固定的锁上
+     */
+    private static final int LOCK_STRIPES = 64;
+    
+    /**
+     * 分段写锁：串行化同一知识库的写入、加载与写回，不同知识库大多落在不同分段上并行执行；
+     * 检索不加锁，读取索引已发布的快照
+     */
+    private final ReentrantLock[] writeLocks = new ReentrantLock[LOCK_STRIPES];
+    
+    /**
+     * 预写日志后台写回线程
+     */
+    private final ScheduledExecutorService walCompactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "vector-wal-compact");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     /**
      * 向量数据结构
@@ -82,8 +202,7 @@ public class CustomVectorStoreService {
     public void addVectors(List<VectorData> vectors) {
         try {
             // 确保目录存在
-            Path storePath = Paths.get(VECTOR_STORE_PATH);
-            Files.createDirectories(storePath);
+            Files.createDirectories(storePath());
             
             // 按知识库ID分组存储
             Map<String, List<VectorData>> groupedByKb = vectors.stream()
@@ -94,14 +213,21 @@ public class CustomVectorStoreService {
                 String kbId = entry.getKey();
                 List<VectorData> kbVectors = entry.getValue();
                 
-                // 读取现有数据
-                List<VectorData> existingVectors = loadVectorsByKnowledgeBase(kbId);
-                
-                // 合并新数据
-                existingVectors.addAll(kbVectors);
-                
-                // 保存到文件
-                saveVectorsByKnowledgeBase(kbId, existingVectors);
+                ReentrantLock lock = lockOf(kbId);
+                lock.lock();
+                try {
+                    // 先落盘到预写日志，再追加到常驻索引和近似检索图
+                    VectorIndex index = getOrCreateIndex(kbId);
+                    VectorWal wal = walOf(kbId);
+                    wal.appendAdd(kbVectors);
+                    index.add(kbVectors);
+                    updateGraph(index);
+                    updateIvfPq(index);
+                    updateLexical(index);
+                    markDirty(kbId, wal);
+                } finally {
+                    lock.unlock();
+                }
             }
             
             log.info("成功添加 {} 个向量到自定义存储", vectors.size());
@@ -117,46 +243,395 @@ public class CustomVectorStoreService {
      */
     public List<SearchResult> similaritySearch(String query, float[] queryEmbedding, 
                                                List<String> knowledgeBaseIds, int topK) {
+        return similaritySearch(query, queryEmbedding, knowledgeBaseIds, topK, false);
+    }
+    
+    /**
+     * 相似度搜索
+     * 
+     * @param exact 为 true 时跳过HNSW图强制暴力扫描，用于核对近似检索的召回质量
+     */
+    public List<SearchResult> similaritySearch(String query, float[] queryEmbedding, 
+                                               List<String> knowledgeBaseIds, int topK, boolean exact) {
+        return similaritySearch(query, queryEmbedding, knowledgeBaseIds, topK, exact, null);
+    }
+    
+    /**
+     * 带元数据过滤的相似度搜索
+     * 
+     * @param filter 过滤条件，为 null 或空时不过滤；只有满足条件的行参与打分
+     */
+    public List<SearchResult> similaritySearch(String query, float[] queryEmbedding, 
+                                               List<String> knowledgeBaseIds, int topK, boolean exact,
+                                               SearchFilter filter) {
         try {
-            List<SearchResult> allResults = new ArrayList<>();
+            QueryVector queryVector = new QueryVector(queryEmbedding);
+            List<String> kbIds = knowledgeBaseIds.stream().distinct().collect(Collectors.toList());
             
-            // 从指定的知识库中搜索
-            for (String kbId : knowledgeBaseIds) {
-                List<VectorData> vectors = loadVectorsByKnowledgeBase(kbId);
-                
-                for (VectorData vector : vectors) {
-                    double similarity = cosineSimilarity(queryEmbedding, vector.getEmbedding());
-                    allResults.add(new SearchResult(
-                        vector.getId(),
-                        vector.getContent(),
-                        vector.getMetadata(),
-                        similarity
-                    ));
-                }
+            List<PartialResult> partials;
+            if (kbIds.size() == 1) {
+                // 单个知识库直接在调用线程检索
+                PartialResult partial = searchKnowledgeBase(kbIds.get(0), queryVector, topK, exact, filter, NO_DEADLINE);
+                partials = partial != null ? List.of(partial) : List.of();
+            } else {
+                partials = fanOut(kbIds, queryVector, topK, exact, filter);
             }
+            return merge(partials, topK);
             
-            // 按相似度排序并返回topK
-            return allResults.stream()
-                    .sorted((a, b) -> Double.compare(b.getSimilarity(), a.getSimilarity()))
-                    .limit(topK)
-                    .collect(Collectors.toList());
-                    
         } catch (Exception e) {
             log.error("相似度搜索失败", e);
             return Collections.emptyList();
         }
     }
     
+    /**
+     * 单个知识库的局部检索结果，按分数从高到低排列；similarities 不为空时作为结果的相似度，否则取排序分数
+     */
+    private static class PartialResult {
+        private final VectorIndex index;
+        private final int[] rows;
+        private final float[] scores;
+        private final float[] similarities;
+        
+        PartialResult(VectorIndex index, int[] rows, float[] scores) {
+            this(index, rows, scores, null);
+        }
+        
+        PartialResult(VectorIndex index, int[] rows, float[] scores, float[] similarities) {
+            this.index = index;
+            this.rows = rows;
+            this.scores = scores;
+            this.similarities = similarities;
+        }
+    }
+    
+    /**
+     * 在检索线程池上并发检索各知识库，等待到查询截止时间为止；超时或线程池已满的知识库本次结果中不包含
+     * 
+     * 检索任务自己检查截止时间，超时后尽早退出；取消时不中断线程，避免打断正在读盘加载的索引
+     */
+    private List<PartialResult> fanOut(List<String> kbIds, QueryVector queryVector, int topK, boolean exact,
+                                       SearchFilter filter) {
+        long timeoutMs = config.getSearch().getTimeoutMs();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        
+        List<Future<PartialResult>> futures = new ArrayList<>(kbIds.size());
+        for (String kbId : kbIds) {
+            try {
+                futures.add(searchExecutor.submit(
+                        () -> searchKnowledgeBase(kbId, queryVector, topK, exact, filter, deadline)));
+            } catch (RejectedExecutionException e) {
+                futures.add(null);
+                log.warn("检索线程池已满，本次结果不包含知识库 {}", kbId);
+            }
+        }
+        
+        List<PartialResult> partials = new ArrayList<>(kbIds.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<PartialResult> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            try {
+                PartialResult partial = future.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+                if (partial != null) {
+                    partials.add(partial);
+                }
+            } catch (TimeoutException e) {
+                future.cancel(false);
+                log.warn("知识库 {} 检索超过 {} ms，本次结果不包含该知识库", kbIds.get(i), timeoutMs);
+            } catch (ExecutionException e) {
+                log.error("知识库 {} 检索失败", kbIds.get(i), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.stream().filter(f -> f != null).forEach(f -> f.cancel(false));
+                break;
+            }
+        }
+        return partials;
+    }
+    
+    private static boolean expired(long deadline) {
+        return deadline != NO_DEADLINE && System.nanoTime() - deadline > 0;
+    }
+    
+    /**
+     * 检索单个知识库，返回局部topK；知识库不存在、为空、维度不匹配、没有满足过滤条件的行或超过截止时间时返回 null
+     */
+    private PartialResult searchKnowledgeBase(String kbId, QueryVector queryVector, int topK, boolean exact,
+                                              SearchFilter filter, long deadline) {
+        VectorIndex index = getIndex(kbId);
+        if (index == null || index.size() == 0 || expired(deadline)) {
+            return null;
+        }
+        if (index.dimension() != queryVector.dimension()) {
+            log.warn("向量维度不匹配，跳过知识库 {}: {} != {}", kbId, index.dimension(), queryVector.dimension());
+            return null;
+        }
+        
+        // 过滤条件先求成候选行位图；命中行很少时精确扫描它们，比在近似索引里逐个跳过更快且不损失召回
+        BitSet allowed = index.matchingRows(filter);
+        int matched = allowed != null ? allowed.cardinality() : index.size();
+        if (matched == 0 || expired(deadline)) {
+            return null;
+        }
+        boolean scanMatched = allowed != null && matched <= index.size() * FILTER_SCAN_RATIO;
+        
+        // 量化索引和IVF-PQ的分数是近似值，多取候选再用原始向量精排
+        IvfPqIndex ivf = exact || scanMatched ? null : index.getIvf();
+        int rerankMultiplier = config.getQuantization().getRerankMultiplier();
+        boolean rerank = rerankMultiplier > 1 && (index.getStorageMode() == StorageMode.INT8 || ivf != null);
+        TopKCollector collector = new TopKCollector(rerank ? topK * rerankMultiplier : topK);
+        
+        HnswIndex graph = exact || scanMatched ? null : index.getGraph();
+        if (ivf != null) {
+            ivf.search(queryVector, config.getIvfPq().getNprobe(), index, 0, collector, allowed);
+            // 后台训练期间新增、尚未编码的行直接扫描
+            scanRows(index, ivf.size(), queryVector, collector, allowed, deadline);
+        } else if (graph != null) {
+            // 过滤掉的节点仍占用搜索宽度，按命中比例放大 ef
+            long ef = Math.max(config.getHnsw().getEfSearch(), collector.capacity());
+            ef = ef * index.size() / Math.max(matched, 1);
+            graph.search(queryVector, (int) Math.min(ef, Integer.MAX_VALUE), index, 0, collector, allowed);
+        } else {
+            scanRows(index, 0, queryVector, collector, allowed, deadline);
+        }
+        if (expired(deadline)) {
+            return null;
+        }
+        
+        if (rerank) {
+            collector = rerank(collector, index, queryVector, topK);
+        }
+        
+        long[] refs = new long[collector.size()];
+        float[] scores = new float[collector.size()];
+        int count = collector.drain(refs, scores);
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = TopKCollector.row(refs[i]);
+        }
+        return new PartialResult(index, rows, scores);
+    }
+    
+    /**
+     * 多路归并各知识库的有序局部结果，只为最终的topK构造结果对象
+     */
+    private List<SearchResult> merge(List<PartialResult> partials, int topK) {
+        int[] cursors = new int[partials.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(partials.size(), 1), 
+                (a, b) -> Float.compare(partials.get(b).scores[cursors[b]], partials.get(a).scores[cursors[a]]));
+        for (int i = 0; i < partials.size(); i++) {
+            if (partials.get(i).rows.length > 0) {
+                heads.add(i);
+            }
+        }
+        
+        List<SearchResult> results = new ArrayList<>(topK);
+        while (results.size() < topK && !heads.isEmpty()) {
+            int source = heads.poll();
+            PartialResult partial = partials.get(source);
+            int row = partial.rows[cursors[source]];
+            results.add(new SearchResult(
+                partial.index.id(row),
+                partial.index.content(row),
+                partial.index.metadata(row),
+                partial.similarities != null ? partial.similarities[cursors[source]] : partial.scores[cursors[source]]
+            ));
+            if (++cursors[source] < partial.rows.length) {
+                heads.add(source);
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * BM25关键词检索
+     * 
+     * 结果按BM25得分排序，similarity 为该行与查询向量的余弦相似度（查询向量为空或维度不匹配时为0），
+     * 便于与向量检索结果融合后沿用同一相似度阈值
+     */
+    public List<SearchResult> lexicalSearch(String query, float[] queryEmbedding, 
+                                            List<String> knowledgeBaseIds, int topK, SearchFilter filter) {
+        if (!config.getLexical().isEnabled() || query == null || query.isBlank()) {
+            return Collections.emptyList();
+        }
+        try {
+            QueryVector queryVector = queryEmbedding != null ? new QueryVector(queryEmbedding) : null;
+            List<PartialResult> partials = new ArrayList<>();
+            for (String kbId : new LinkedHashSet<>(knowledgeBaseIds)) {
+                PartialResult partial = lexicalSearchKnowledgeBase(kbId, query, queryVector, topK, filter);
+                if (partial != null) {
+                    partials.add(partial);
+                }
+            }
+            return merge(partials, topK);
+            
+        } catch (Exception e) {
+            log.error("关键词检索失败", e);
+            return Collections.emptyList();
+        }
+    }
+    
+    private PartialResult lexicalSearchKnowledgeBase(String kbId, String query, QueryVector queryVector, 
+                                                     int topK, SearchFilter filter) {
+        VectorIndex index = getIndex(kbId);
+        if (index == null || index.size() == 0) {
+            return null;
+        }
+        BitSet allowed = index.matchingRows(filter);
+        if (allowed != null && allowed.isEmpty()) {
+            return null;
+        }
+        
+        TopKCollector collector = new TopKCollector(topK);
+        lexicalOf(index).search(query, index, 0, collector, allowed);
+        
+        long[] refs = new long[collector.size()];
+        float[] scores = new float[collector.size()];
+        int count = collector.drain(refs, scores);
+        int[] rows = new int[count];
+        float[] similarities = new float[count];
+        boolean comparable = queryVector != null && queryVector.dimension() == index.dimension();
+        float[] scratch = comparable ? new float[index.dimension()] : null;
+        for (int i = 0; i < count; i++) {
+            rows[i] = TopKCollector.row(refs[i]);
+            similarities[i] = comparable ? index.exactScore(rows[i], queryVector, scratch) : 0.0f;
+        }
+        return new PartialResult(index, rows, scores, similarities);
+    }
+    
+    /**
+     * 取索引的BM25倒排索引，尚未建立时在写锁内由文本块内容建立
+     */
+    private Bm25Index lexicalOf(VectorIndex index) {
+        Bm25Index lexical = index.getLexical();
+        if (lexical != null) {
+            return lexical;
+        }
+        
+        String kbId = index.getKnowledgeBaseId();
+        ReentrantLock lock = lockOf(kbId);
+        lock.lock();
+        try {
+            lexical = index.getLexical();
+            if (lexical == null) {
+                long start = System.currentTimeMillis();
+                lexical = new Bm25Index();
+                lexical.addPending(index);
+                index.setLexical(lexical);
+                indexCache.updated(kbId);
+                log.info("知识库 {} 建立BM25索引，{} 行，耗时 {} ms", 
+                        kbId, lexical.size(), System.currentTimeMillis() - start);
+            }
+            return lexical;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 已建立BM25索引的知识库随写入增量索引新行
+     */
+    private void updateLexical(VectorIndex index) {
+        Bm25Index lexical = index.getLexical();
+        if (lexical != null) {
+            lexical.addPending(index);
+        }
+    }
+    
+    /**
+     * 暴力扫描从指定行开始的存活行；给出候选行位图时只扫描位图内的行，超过截止时间时提前停止
+     */
+    private void scanRows(VectorIndex index, int fromRow, QueryVector queryVector, TopKCollector collector,
+                          BitSet allowed, long deadline) {
+        int limit = index.size();
+        int scanned = 0;
+        if (allowed != null) {
+            for (int row = allowed.nextSetBit(fromRow); row >= 0 && row < limit; row = allowed.nextSetBit(row + 1)) {
+                if (++scanned % DEADLINE_CHECK_ROWS == 0 && expired(deadline)) {
+                    return;
+                }
+                if (!index.isDeleted(row)) {
+                    collector.offer(row, index.score(row, queryVector));
+                }
+            }
+            return;
+        }
+        for (int row = fromRow; row < limit; row++) {
+            if (++scanned % DEADLINE_CHECK_ROWS == 0 && expired(deadline)) {
+                return;
+            }
+            if (!index.isDeleted(row)) {
+                collector.offer(row, index.score(row, queryVector));
+            }
+        }
+    }
+    
+    /**
+     * 用原始float向量重新计算候选分数，保留topK
+     */
+    private TopKCollector rerank(TopKCollector candidates, VectorIndex index, QueryVector queryVector, int topK) {
+        long[] refs = new long[candidates.size()];
+        float[] scores = new float[candidates.size()];
+        int count = candidates.drain(refs, scores);
+        
+        TopKCollector reranked = new TopKCollector(topK);
+        float[] scratch = new float[queryVector.dimension()];
+        for (int i = 0; i < count; i++) {
+            reranked.offer(refs[i], index.exactScore(TopKCollector.row(refs[i]), queryVector, scratch));
+        }
+        return reranked;
+    }
+    
+    /**
+     * 丢弃知识库的常驻索引（例如存储方式变更后），下次查询按新配置重新加载
+     */
+    public void evictIndex(String knowledgeBaseId) {
+        indexCache.remove(knowledgeBaseId);
+    }
+    
+    /**
+     * 修复或替换段文件后重新加载之前加载失败的知识库，成功后恢复写入和写回；仍然失败时抛出异常
+     */
+    public void reloadIndex(String knowledgeBaseId) {
+        ReentrantLock lock = lockOf(knowledgeBaseId);
+        lock.lock();
+        try {
+            loadFailures.remove(knowledgeBaseId);
+            indexCache.remove(knowledgeBaseId);
+            VectorIndex index = loadIndex(knowledgeBaseId);
+            log.info("重新加载知识库 {} 的向量索引，共 {} 条", knowledgeBaseId, index != null ? index.size() : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
     /**
      * 删除知识库的所有向量
      */
     public void deleteByKnowledgeBase(String knowledgeBaseId) {
+        ReentrantLock lock = lockOf(knowledgeBaseId);
+        lock.lock();
         try {
-            Path filePath = Paths.get(VECTOR_STORE_PATH, knowledgeBaseId + ".json");
-            Files.deleteIfExists(filePath);
+            indexCache.remove(knowledgeBaseId);
+            dirty.remove(knowledgeBaseId);
+            loadFailures.remove(knowledgeBaseId);
+            VectorWal wal = wals.remove(knowledgeBaseId);
+            if (wal != null) {
+                wal.close();
+            }
+            Path storePath = storePath();
+            Files.deleteIfExists(VectorWal.file(storePath, knowledgeBaseId));
+            VectorSegment.delete(storePath, knowledgeBaseId);
+            Files.deleteIfExists(HnswIndex.file(storePath, knowledgeBaseId));
+            Files.deleteIfExists(IvfPqIndex.file(storePath, knowledgeBaseId));
+            Files.deleteIfExists(storePath.resolve(knowledgeBaseId + LEGACY_SUFFIX));
             log.info("删除知识库 {} 的向量数据", knowledgeBaseId);
         } catch (Exception e) {
             log.error("删除向量数据失败", e);
+        } finally {
+            lock.unlock();
         }
     }
     
@@ -164,68 +639,468 @@ public class CustomVectorStoreService {
      * 删除指定的向量
      */
     public void deleteVectors(List<String> ids, String knowledgeBaseId) {
+        ReentrantLock lock = lockOf(knowledgeBaseId);
+        lock.lock();
         try {
-            List<VectorData> vectors = loadVectorsByKnowledgeBase(knowledgeBaseId);
-            vectors.removeIf(v -> ids.contains(v.getId()));
-            saveVectorsByKnowledgeBase(knowledgeBaseId, vectors);
-            log.info("删除 {} 个向量", ids.size());
+            VectorIndex index = getIndex(knowledgeBaseId);
+            if (index == null) {
+                return;
+            }
+            
+            VectorWal wal = walOf(knowledgeBaseId);
+            wal.appendDelete(ids);
+            int removed = index.delete(ids);
+            markDirty(knowledgeBaseId, wal);
+            if (removed == 0) {
+                return;
+            }
+            
+            // 墓碑过多时紧凑，避免搜索扫描无效行；行号变化后需要重建近似检索图，IVF-PQ沿用码本重新编码
+            if (index.deletedCount() > index.size() * COMPACT_DELETED_RATIO) {
+                IvfPqIndex ivf = index.getIvf();
+                index = index.compact();
+                if (ivf != null) {
+                    index.setIvf(ivf.emptyCopy());
+                }
+                updateGraph(index);
+                updateIvfPq(index);
+                indexCache.put(knowledgeBaseId, index);
+            }
+            log.info("删除 {} 个向量", removed);
         } catch (Exception e) {
             log.error("删除向量失败", e);
+            throw new RuntimeException("删除向量失败: " + e.getMessage());
+        } finally {
+            lock.unlock();
         }
     }
     
     /**
-     * 计算余弦相似度
+     * 初始化常驻索引缓存，并一次性迁移旧版JSON向量文件
      */
-    private double cosineSimilarity(float[] a, float[] b) {
-        if (a.length != b.length) {
-            throw new IllegalArgumentException("向量维度不匹配");
+    @PostConstruct
+    public void init() {
+        indexCache = new VectorIndexCache(config.getMemoryBudgetMb() * 1024 * 1024);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            writeLocks[i] = new ReentrantLock();
         }
         
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
+        CustomVectorStoreConfig.Search search = config.getSearch();
+        AtomicInteger threadCount = new AtomicInteger();
+        searchExecutor = new ThreadPoolExecutor(search.getParallelism(), search.getParallelism(),
+                60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(search.getQueueCapacity()),
+                r -> {
+                    Thread thread = new Thread(r, "vector-search-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        searchExecutor.allowCoreThreadTimeOut(true);
+        
+        long interval = config.getWal().getCompactIntervalSeconds();
+        walCompactor.scheduleWithFixedDelay(this::flushDirty, interval, interval, TimeUnit.SECONDS);
+        
+        Path storePath = storePath();
+        if (!Files.isDirectory(storePath)) {
+            return;
+        }
         
-        for (int i = 0; i < a.length; i++) {
-            dotProduct += a[i] * b[i];
-            normA += a[i] * a[i];
-            normB += b[i] * b[i];
+        // 上次未写回的预写日志，在后台写回时并入向量段
+        try (DirectoryStream<Path> walFiles = Files.newDirectoryStream(storePath, "*" + VectorWal.FILE_SUFFIX)) {
+            for (Path walFile : walFiles) {
+                if (Files.size(walFile) > 0) {
+                    String fileName = walFile.getFileName().toString();
+                    dirty.add(fileName.substring(0, fileName.length() - VectorWal.FILE_SUFFIX.length()));
+                }
+            }
+        } catch (Exception e) {
+            log.error("扫描预写日志失败", e);
         }
         
-        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+        try (DirectoryStream<Path> legacyFiles = Files.newDirectoryStream(storePath, "*" + LEGACY_SUFFIX)) {
+            for (Path legacyFile : legacyFiles) {
+                String fileName = legacyFile.getFileName().toString();
+                if (fileName.endsWith(VectorSegment.META_SUFFIX)) {
+                    continue;
+                }
+                migrateLegacyStore(fileName.substring(0, fileName.length() - LEGACY_SUFFIX.length()));
+            }
+        } catch (Exception e) {
+            log.error("迁移旧版向量文件失败", e);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+        ivfTrainer.shutdownNow();
+        walCompactor.shutdownNow();
+        flushDirty();
+        for (VectorWal wal : wals.values()) {
+            try {
+                wal.close();
+            } catch (IOException e) {
+                log.warn("关闭预写日志失败", e);
+            }
+        }
+        wals.clear();
+    }
+    
+    /**
+     * 将所有有未写回日志的知识库写回向量段
+     */
+    private void flushDirty() {
+        for (String kbId : new ArrayList<>(dirty)) {
+            flush(kbId);
+        }
     }
     
     /**
-     * 加载知识库的向量数据
+     * 把常驻索引整体写回向量段后清空预写日志；索引已被淘汰时先加载（重放日志）再写回
      */
-    private List<VectorData> loadVectorsByKnowledgeBase(String knowledgeBaseId) {
+    private void flush(String knowledgeBaseId) {
+        ReentrantLock lock = lockOf(knowledgeBaseId);
+        lock.lock();
         try {
-            Path filePath = Paths.get(VECTOR_STORE_PATH, knowledgeBaseId + ".json");
-            if (!Files.exists(filePath)) {
-                return new ArrayList<>();
+            if (loadFailures.containsKey(knowledgeBaseId)) {
+                // 段文件加载失败，保留日志等待修复
+                return;
             }
-            
-            String json = Files.readString(filePath);
-            VectorData[] vectors = objectMapper.readValue(json, VectorData[].class);
-            return new ArrayList<>(Arrays.asList(vectors));
-            
+            if (!dirty.remove(knowledgeBaseId)) {
+                return;
+            }
+            VectorIndex index = getIndex(knowledgeBaseId);
+            if (index == null) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            saveIndex(index);
+            walOf(knowledgeBaseId).reset();
+            log.info("知识库 {} 的预写日志已写回向量段，共 {} 条，耗时 {} ms", 
+                    knowledgeBaseId, index.size(), System.currentTimeMillis() - start);
         } catch (Exception e) {
-            log.error("加载向量数据失败: {}", knowledgeBaseId, e);
-            return new ArrayList<>();
+            dirty.add(knowledgeBaseId);
+            log.error("写回向量段失败，保留预写日志: {}", knowledgeBaseId, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * 标记知识库有待写回的日志，日志超过上限时立即安排写回
+     */
+    private void markDirty(String knowledgeBaseId, VectorWal wal) throws IOException {
+        dirty.add(knowledgeBaseId);
+        if (wal.size() > config.getWal().getMaxSizeMb() * 1024 * 1024) {
+            walCompactor.execute(() -> flush(knowledgeBaseId));
+        }
+    }
+    
+    private VectorWal walOf(String knowledgeBaseId) throws IOException {
+        VectorWal wal = wals.get(knowledgeBaseId);
+        if (wal == null) {
+            wal = VectorWal.open(storePath(), knowledgeBaseId, objectMapper);
+            wals.put(knowledgeBaseId, wal);
+        }
+        return wal;
+    }
+    
+    private ReentrantLock lockOf(String knowledgeBaseId) {
+        return writeLocks[(knowledgeBaseId.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+    
+    /**
+     * 将单个知识库的JSON向量文件转换为二进制向量段，原文件重命名保留
+     */
+    private void migrateLegacyStore(String knowledgeBaseId) throws IOException {
+        Path storePath = storePath();
+        Path legacyFile = storePath.resolve(knowledgeBaseId + LEGACY_SUFFIX);
+        if (!Files.exists(legacyFile) || VectorSegment.exists(storePath, knowledgeBaseId)) {
+            return;
         }
+        
+        long start = System.currentTimeMillis();
+        VectorData[] vectors = objectMapper.readValue(legacyFile.toFile(), VectorData[].class);
+        VectorIndex index = new VectorIndex(knowledgeBaseId);
+        index.add(Arrays.asList(vectors));
+        VectorSegment.write(storePath, index, objectMapper);
+        Files.move(legacyFile, storePath.resolve(knowledgeBaseId + MIGRATED_SUFFIX),
+                StandardCopyOption.REPLACE_EXISTING);
+        log.info("知识库 {} 的向量数据已迁移为二进制段，共 {} 条，耗时 {} ms", 
+                knowledgeBaseId, vectors.length, System.currentTimeMillis() - start);
     }
     
     /**
-     * 保存知识库的向量数据
+     * 获取知识库的常驻索引，首次访问时从向量段加载并重放预写日志；段文件和日志都不存在时返回 null，
+     * 加载失败时抛出异常
      */
-    private void saveVectorsByKnowledgeBase(String knowledgeBaseId, List<VectorData> vectors) {
+    private VectorIndex getIndex(String knowledgeBaseId) {
+        VectorIndex cached = indexCache.get(knowledgeBaseId);
+        if (cached != null) {
+            return cached;
+        }
+        
+        ReentrantLock lock = lockOf(knowledgeBaseId);
+        lock.lock();
         try {
-            Path filePath = Paths.get(VECTOR_STORE_PATH, knowledgeBaseId + ".json");
-            String json = objectMapper.writeValueAsString(vectors);
-            Files.writeString(filePath, json);
+            cached = indexCache.get(knowledgeBaseId);
+            if (cached != null) {
+                return cached;
+            }
+            String failure = loadFailures.get(knowledgeBaseId);
+            if (failure != null) {
+                throw new IllegalStateException("知识库 " + knowledgeBaseId + " 的向量索引加载失败，修复或重建前不可用: " + failure);
+            }
+            return loadIndex(knowledgeBaseId);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private VectorIndex loadIndex(String knowledgeBaseId) {
+        Path storePath = storePath();
+        VectorSegment segment;
+        try {
+            migrateLegacyStore(knowledgeBaseId);
+            segment = VectorSegment.open(storePath, knowledgeBaseId, objectMapper);
         } catch (Exception e) {
-            log.error("保存向量数据失败: {}", knowledgeBaseId, e);
+            throw loadFailed(knowledgeBaseId, e);
+        }
+        boolean hasWal = Files.exists(VectorWal.file(storePath, knowledgeBaseId));
+        if (segment == null && !hasWal) {
+            return null;
+        }
+        
+        // 读取配置失败（如数据库暂时不可用）直接抛出，不标记为加载失败，下次访问重试
+        StorageMode storageMode = storageModeOf(knowledgeBaseId);
+        try {
+            long start = System.currentTimeMillis();
+            VectorIndex index = segment != null 
+                    ? VectorIndex.fromSegment(segment, storageMode) 
+                    : new VectorIndex(knowledgeBaseId, storageMode);
+            if (segment != null) {
+                // 持久化的近似索引与段文件行号一致，须在重放日志前挂载
+                index.setIvf(loadIvfPq(index, segment.generation()));
+                if (index.getIvf() == null) {
+                    index.setGraph(loadGraph(index, segment.generation()));
+                }
+            }
+            int replayed = VectorWal.replay(storePath, knowledgeBaseId, objectMapper, index);
+            if (replayed > 0) {
+                dirty.add(knowledgeBaseId);
+                log.info("知识库 {} 重放预写日志 {} 条记录", knowledgeBaseId, replayed);
+            }
+            updateGraph(index);
+            updateIvfPq(index);
+            indexCache.put(knowledgeBaseId, index);
+            log.info("加载知识库 {} 的向量索引，共 {} 条，存储方式 {}，耗时 {} ms，缓存占用 {} MB", 
+                    knowledgeBaseId, index.size(), index.getStorageMode(), System.currentTimeMillis() - start,
+                    indexCache.usedBytes() / (1024 * 1024));
+            return index;
+        } catch (Exception e) {
+            throw loadFailed(knowledgeBaseId, e);
+        }
+    }
+    
+    /**
+     * 记录加载失败，在修复或重建前拒绝写入和写回该知识库
+     */
+    private IllegalStateException loadFailed(String knowledgeBaseId, Exception e) {
+        String reason = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        loadFailures.put(knowledgeBaseId, reason);
+        log.error("加载向量索引失败，修复或重建前拒绝写入该知识库，预写日志保留: {}", knowledgeBaseId, e);
+        return new IllegalStateException("知识库 " + knowledgeBaseId + " 的向量索引加载失败: " + reason, e);
+    }
+    
+    /**
+     * 获取知识库的常驻索引，段文件和预写日志都不存在时创建空索引；加载失败时抛出异常，不会以空索引代替
+     */
+    private VectorIndex getOrCreateIndex(String knowledgeBaseId) {
+        VectorIndex index = getIndex(knowledgeBaseId);
+        if (index == null) {
+            index = new VectorIndex(knowledgeBaseId, storageModeOf(knowledgeBaseId));
+            indexCache.put(knowledgeBaseId, index);
+        }
+        return index;
+    }
+    
+    /**
+     * 读取知识库配置的向量存储方式
+     */
+    private StorageMode storageModeOf(String knowledgeBaseId) {
+        KnowledgeBase kb = knowledgeBaseMapper.selectById(knowledgeBaseId);
+        return kb != null ? StorageMode.of(kb.getVectorStorageMode()) : StorageMode.FLOAT32;
+    }
+    
+    /**
+     * 读取持久化的HNSW图，写入时对应的段代号与当前段不同（如切换段后、写图前中断）时丢弃
+     */
+    private HnswIndex loadGraph(VectorIndex index, long segmentGeneration) {
+        if (!config.getHnsw().isEnabled()) {
+            return null;
+        }
+        
+        try {
+            HnswIndex graph = HnswIndex.read(HnswIndex.file(storePath(), index.getKnowledgeBaseId()));
+            if (graph != null && (graph.getSegmentGeneration() != segmentGeneration || graph.size() > index.size())) {
+                log.warn("知识库 {} 的HNSW图与向量段不一致，将重建", index.getKnowledgeBaseId());
+                return null;
+            }
+            return graph;
+        } catch (Exception e) {
+            log.warn("读取HNSW图失败，将重建: {}", index.getKnowledgeBaseId(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * 读取持久化的IVF-PQ索引，写入时对应的段代号与当前段不同时丢弃
+     */
+    private IvfPqIndex loadIvfPq(VectorIndex index, long segmentGeneration) {
+        if (!config.getIvfPq().isEnabled()) {
+            return null;
+        }
+        
+        try {
+            IvfPqIndex ivf = IvfPqIndex.read(IvfPqIndex.file(storePath(), index.getKnowledgeBaseId()));
+            if (ivf != null && (ivf.getSegmentGeneration() != segmentGeneration || ivf.size() > index.size())) {
+                log.warn("知识库 {} 的IVF-PQ索引与向量段不一致，将重新训练", index.getKnowledgeBaseId());
+                return null;
+            }
+            return ivf;
+        } catch (Exception e) {
+            log.warn("读取IVF-PQ索引失败，将重新训练: {}", index.getKnowledgeBaseId(), e);
+            return null;
+        }
+    }
+    
+    /**
+     * 将新增行插入HNSW图；知识库首次达到建图阈值时全量建图。已有IVF-PQ索引的知识库不再维护HNSW图
+     */
+    private void updateGraph(VectorIndex index) {
+        CustomVectorStoreConfig.Hnsw hnsw = config.getHnsw();
+        if (!hnsw.isEnabled()) {
+            return;
+        }
+        if (index.getIvf() != null) {
+            index.setGraph(null);
+            return;
+        }
+        
+        HnswIndex graph = index.getGraph();
+        if (graph == null) {
+            if (index.liveCount() < hnsw.getMinVectors()) {
+                return;
+            }
+            graph = new HnswIndex(hnsw.getM(), hnsw.getEfConstruction());
+            index.setGraph(graph);
+        }
+        
+        int pending = index.size() - graph.size();
+        if (pending > 0) {
+            long start = System.currentTimeMillis();
+            graph.addPending(index);
+            log.info("知识库 {} 的HNSW图插入 {} 个节点，耗时 {} ms", 
+                    index.getKnowledgeBaseId(), pending, System.currentTimeMillis() - start);
+        }
+    }
+    
+    /**
+     * 用已有码本编码新增行；存活向量数首次达到阈值或增长到训练规模的若干倍时提交后台训练
+     */
+    private void updateIvfPq(VectorIndex index) {
+        CustomVectorStoreConfig.IvfPq ivfPq = config.getIvfPq();
+        if (!ivfPq.isEnabled()) {
+            return;
+        }
+        
+        IvfPqIndex ivf = index.getIvf();
+        if (ivf != null && ivf.size() < index.size()) {
+            ivf.addPending(index);
+        }
+        
+        boolean untrained = ivf == null && index.liveCount() >= ivfPq.getMinVectors();
+        boolean outgrown = ivf != null && index.liveCount() >= ivf.getTrainedOn() * ivfPq.getRetrainGrowthRatio();
+        if (untrained || outgrown) {
+            scheduleIvfPqTraining(index);
+        }
+    }
+    
+    /**
+     * 后台训练IVF-PQ索引，完成后替换当前索引，随下次写回持久化；训练期间索引被替换（如紧凑）则丢弃结果
+     */
+    private void scheduleIvfPqTraining(VectorIndex index) {
+        String kbId = index.getKnowledgeBaseId();
+        if (!ivfTraining.add(kbId)) {
+            return;
+        }
+        
+        CustomVectorStoreConfig.IvfPq ivfPq = config.getIvfPq();
+        log.info("提交知识库 {} 的IVF-PQ训练任务，存活向量 {} 条", kbId, index.liveCount());
+        ivfTrainer.execute(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                IvfPqIndex trained = IvfPqIndex.train(index, ivfPq.getNlist(), ivfPq.getSubQuantizers(),
+                        ivfPq.getTrainSampleSize(), ivfPq.getTrainIterations());
+                trained.addPending(index);
+                
+                ReentrantLock lock = lockOf(kbId);
+                lock.lock();
+                try {
+                    if (indexCache.get(kbId) != index) {
+                        log.info("知识库 {} 的索引在训练期间已被替换，丢弃本次IVF-PQ训练结果", kbId);
+                        return;
+                    }
+                    // 训练期间新增的行在这里补齐，随下次写回一并持久化
+                    trained.addPending(index);
+                    index.setIvf(trained);
+                    index.setGraph(null);
+                    dirty.add(kbId);
+                    indexCache.updated(kbId);
+                } finally {
+                    lock.unlock();
+                }
+                log.info("知识库 {} 的IVF-PQ训练完成，nlist={}，子向量段={}，编码 {} 行，耗时 {} ms", 
+                        kbId, trained.getNlist(), trained.getSubQuantizers(), trained.size(), 
+                        System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                log.error("知识库 {} 的IVF-PQ训练失败", kbId, e);
+            } finally {
+                ivfTraining.remove(kbId);
+            }
+        });
+    }
+    
+    /**
+     * 将常驻索引及其近似索引写回段文件，调用方负责随后清空预写日志
+     */
+    private void saveIndex(VectorIndex index) {
+        try {
+            long generation = VectorSegment.write(storePath(), index, objectMapper);
+            if (index.getStorageMode() == StorageMode.INT8) {
+                // 量化索引改由新段文件提供原始向量，释放堆内暂存
+                index.attachSegment(VectorSegment.open(storePath(), index.getKnowledgeBaseId(), objectMapper));
+            }
+            Path graphFile = HnswIndex.file(storePath(), index.getKnowledgeBaseId());
+            if (index.getGraph() != null) {
+                index.getGraph().write(graphFile, generation);
+            } else {
+                Files.deleteIfExists(graphFile);
+            }
+            Path ivfFile = IvfPqIndex.file(storePath(), index.getKnowledgeBaseId());
+            if (index.getIvf() != null) {
+                index.getIvf().write(ivfFile, generation);
+            } else {
+                Files.deleteIfExists(ivfFile);
+            }
+            indexCache.updated(index.getKnowledgeBaseId());
+        } catch (Exception e) {
+            log.error("保存向量数据失败: {}", index.getKnowledgeBaseId(), e);
             throw new RuntimeException("保存向量数据失败: " + e.getMessage());
         }
     }
+    
+    private Path storePath() {
+        return Paths.get(config.getPath());
+    }
 }
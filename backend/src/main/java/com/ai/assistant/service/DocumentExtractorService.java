@@ -1,8 +1,7 @@
 package com.ai.assistant.service;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
@@ -20,8 +19,11 @@ import java.nio.charset.StandardCharsets;
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class DocumentExtractorService {
     
+    private final DocumentProcessorService documentProcessorService;
+    
     /**
      * 提取文档内容
      */
@@ -48,12 +50,9 @@ public class DocumentExtractorService {
      * 提取 PDF 内容
      */
     private String extractPdf(InputStream inputStream) throws IOException {
-        try (PDDocument document = PDDocument.load(inputStream)) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(document);
-            log.info("✓ PDF 提取成功，共 {} 页，{} 字符", document.getNumberOfPages(), text.length());
-            return text;
-        }
+        String text = documentProcessorService.extractPdfText(inputStream);
+        log.info("✓ PDF 提取成功，{} 字符", text.length());
+        return text;
     }
     
     /**
@@ -1,6 +1,12 @@
 package com.ai.assistant.service;
 
+import com.ai.assistant.config.IngestionConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.DefaultResourceCache;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
@@ -10,14 +16,58 @@ import org.springframework.stereotype.Service;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class DocumentProcessorService {
     
+    private final IngestionConfig config;
+    
+    /**
+     * 所有文档共用的 PDF 页窗口提取线程池
+     */
+    private ForkJoinPool pdfPool;
+    
+    /**
+     * 逐页接收提取出的文本
+     */
+    public interface PageConsumer {
+        void accept(int pageNumber, String text) throws IOException;
+    }
+    
+    @PostConstruct
+    public void init() {
+        int threads = config.getPdfExtractThreads() > 0
+                ? config.getPdfExtractThreads() : Runtime.getRuntime().availableProcessors();
+        pdfPool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("pdf-extract-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        pdfPool.shutdownNow();
+    }
+    
     /**
      * 提取文档文本内容
      */
@@ -48,12 +98,187 @@ public class DocumentProcessorService {
      * 提取 PDF 文本
      */
     private String extractPdfText(String filePath) throws IOException {
-        try (PDDocument document = PDDocument.load(new File(filePath))) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
+        StringBuilder text = new StringBuilder();
+        extractPdfPages(filePath, (pageNumber, pageText) -> text.append(pageText));
+        return text.toString();
+    }
+    
+    /**
+     * 从输入流提取 PDF 文本（聊天附件），解析用的缓冲按同样的上限溢出到临时文件
+     */
+    public String extractPdfText(InputStream inputStream) throws IOException {
+        try (PDDocument document = PDDocument.load(inputStream, pdfMemoryUsage())) {
+            return readPdfText(document);
         }
     }
     
+    /**
+     * 逐页提取 PDF 文本，按页码顺序交给 consumer，不生成全文，返回页数
+     * 多于一个页窗口时各窗口在共用线程池上并行提取
+     */
+    public int extractPdfPages(String filePath, PageConsumer consumer) throws IOException {
+        File file = new File(filePath);
+        try (PDDocument document = PDDocument.load(file, pdfMemoryUsage())) {
+            int pages = document.getNumberOfPages();
+            int windowPages = pdfWindowPages();
+            int windows = (pages + windowPages - 1) / windowPages;
+            int parallelism = Math.min(config.getPdfMaxParallelism(), windows);
+            if (parallelism <= 1) {
+                readPdfPages(document, consumer);
+            } else {
+                readPdfPagesParallel(file, document, pages, parallelism, consumer);
+            }
+            return pages;
+        }
+    }
+    
+    /**
+     * 是否支持逐页提取
+     */
+    public boolean supportsPages(String fileType) {
+        return "pdf".equalsIgnoreCase(fileType);
+    }
+    
+    private String readPdfText(PDDocument document) throws IOException {
+        StringBuilder text = new StringBuilder();
+        readPdfPages(document, (pageNumber, pageText) -> text.append(pageText));
+        return text.toString();
+    }
+    
+    /**
+     * 在当前线程按页窗口顺序提取
+     */
+    private void readPdfPages(PDDocument document, PageConsumer consumer) throws IOException {
+        int pages = document.getNumberOfPages();
+        int windowPages = pdfWindowPages();
+        for (int windowStart = 1; windowStart <= pages; windowStart += windowPages) {
+            int windowEnd = Math.min(windowStart + windowPages - 1, pages);
+            List<String> texts = stripWindow(document, windowStart, windowEnd);
+            for (int i = 0; i < texts.size(); i++) {
+                consumer.accept(windowStart + i, texts.get(i));
+            }
+        }
+    }
+    
+    /**
+     * 在共用线程池上并行提取页窗口，按顺序交给 consumer
+     * 
+     * PDDocument 不是线程安全的，每个并行任务从句柄池取一个独立打开同一文件的 PDDocument，用完放回。
+     * 同一文档同时在途的窗口数不超过 parallelism：一篇大文档最多占用这么多个线程，不会挤占其他文档的提取，
+     * 已提取但尚未按顺序消费的文本也不超过这么多个窗口。
+     */
+    private void readPdfPagesParallel(File file, PDDocument first, int pages, int parallelism,
+                                      PageConsumer consumer) throws IOException {
+        int windowPages = pdfWindowPages();
+        Queue<PDDocument> idle = new ConcurrentLinkedQueue<>(List.of(first));
+        List<PDDocument> opened = new CopyOnWriteArrayList<>();
+        Deque<ForkJoinTask<List<String>>> inFlight = new ArrayDeque<>();
+        try {
+            int nextStart = 1;
+            int consumedPages = 0;
+            while (consumedPages < pages) {
+                while (nextStart <= pages && inFlight.size() < parallelism) {
+                    int windowStart = nextStart;
+                    int windowEnd = Math.min(windowStart + windowPages - 1, pages);
+                    inFlight.add(pdfPool.submit(() -> stripWindow(file, idle, opened, windowStart, windowEnd)));
+                    nextStart = windowEnd + 1;
+                }
+                List<String> texts = joinWindow(inFlight.poll());
+                for (String text : texts) {
+                    consumer.accept(++consumedPages, text);
+                }
+            }
+        } finally {
+            // 出错时等待已提交的窗口结束后再关闭句柄
+            for (ForkJoinTask<List<String>> task : inFlight) {
+                task.quietlyJoin();
+            }
+            for (PDDocument document : opened) {
+                document.close();
+            }
+        }
+    }
+    
+    private List<String> stripWindow(File file, Queue<PDDocument> idle, List<PDDocument> opened,
+                                     int windowStart, int windowEnd) {
+        try {
+            PDDocument document = idle.poll();
+            if (document == null) {
+                document = PDDocument.load(file, pdfMemoryUsage());
+                opened.add(document);
+            }
+            try {
+                return stripWindow(document, windowStart, windowEnd);
+            } finally {
+                idle.add(document);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private List<String> joinWindow(ForkJoinTask<List<String>> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * 提取一个页窗口：整个窗口只解析一遍，按页切分文本；结束后丢弃该窗口解析的字体、图片等资源缓存，
+     * 堆内只保留当前窗口的页面资源
+     */
+    private List<String> stripWindow(PDDocument document, int windowStart, int windowEnd) throws IOException {
+        List<String> texts = new PageTextStripper().strip(document, windowStart, windowEnd);
+        // 页码按返回顺序递增，缺页时补空文本保证后续页码不错位
+        while (texts.size() < windowEnd - windowStart + 1) {
+            texts.add("");
+        }
+        document.setResourceCache(new DefaultResourceCache());
+        return texts;
+    }
+    
+    /**
+     * 一次提取连续多页，每页结束时截取该页文本
+     * 
+     * 页边界取在 writePageEnd：没有文字的页面不会触发 writePageStart，而 writePageEnd 每页都会调用，
+     * 空白页也得到一条空文本。每页文本与单独对该页调用 getText 的结果相同
+     */
+    private static final class PageTextStripper extends PDFTextStripper {
+        private final StringWriter buffer = new StringWriter();
+        private final List<String> pages = new ArrayList<>();
+        
+        PageTextStripper() throws IOException {
+            super();
+        }
+        
+        List<String> strip(PDDocument document, int startPage, int endPage) throws IOException {
+            setStartPage(startPage);
+            setEndPage(endPage);
+            writeText(document, buffer);
+            return pages;
+        }
+        
+        @Override
+        protected void writePageEnd() throws IOException {
+            super.writePageEnd();
+            pages.add(buffer.toString());
+            buffer.getBuffer().setLength(0);
+        }
+    }
+    
+    private int pdfWindowPages() {
+        return Math.max(config.getPdfWindowPages(), 1);
+    }
+    
+    private MemoryUsageSetting pdfMemoryUsage() {
+        long maxMainMemoryBytes = config.getPdfMaxMainMemoryMb() * 1024 * 1024;
+        return maxMainMemoryBytes > 0
+                ? MemoryUsageSetting.setupMixed(maxMainMemoryBytes)
+                : MemoryUsageSetting.setupTempFileOnly();
+    }
+    
     /**
      * 提取 Word 文档文本
      */
@@ -4,7 +4,9 @@ import com.ai.assistant.dto.DocumentDTO;
 import com.ai.assistant.entity.Document;
 import com.ai.assistant.mapper.DocumentMapper;
 import com.ai.assistant.mapper.DocumentChunkMapper;
+import com.ai.assistant.mapper.IngestionJobMapper;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -31,6 +33,7 @@ public class DocumentService {
     
     private final DocumentMapper documentMapper;
     private final DocumentChunkMapper documentChunkMapper;
+    private final IngestionJobMapper ingestionJobMapper;
     private final ObjectMapper objectMapper;
     
     private static final List<String> ALLOWED_TYPES = Arrays.asList("pdf", "docx", "txt", "md");
@@ -69,6 +72,67 @@ public class DocumentService {
         return document;
     }
     
+    /**
+     * 批量登记已保存到磁盘的文档并创建入库任务
+     * 
+     * 文档记录和任务记录各用一条多行插入，在同一事务内提交，不会出现已登记却没有任务的文档；
+     * 任务由轮询线程领取，调用方提交后可调用 {@link IngestionJobService#wakeUp()} 尽快开始处理
+     */
+    @Transactional
+    public void registerBatch(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        documentMapper.insertBatch(documents);
+        ingestionJobMapper.insertPendingJobs(documents.stream().map(Document::getId).collect(Collectors.toList()),
+                System.currentTimeMillis());
+        log.info("批量登记文档 {} 个", documents.size());
+    }
+    
+    /**
+     * 构建已保存文件对应的文档记录（未写入数据库）
+     */
+    public Document buildDocument(String knowledgeBaseId, String fileName, String filePath, long fileSize,
+                                  List<String> tags, String category) {
+        long now = System.currentTimeMillis();
+        return Document.builder()
+                .id(IdWorker.get32UUID())
+                .knowledgeBaseId(knowledgeBaseId)
+                .fileName(fileName)
+                .fileType(getFileExtension(fileName))
+                .fileSize(fileSize)
+                .filePath(filePath)
+                .status("PENDING")
+                .chunkCount(0)
+                .tags(tags != null ? convertTagsToJson(tags) : null)
+                .category(category)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+    }
+    
+    /**
+     * 是否为支持的文档类型
+     */
+    public boolean isSupportedFile(String fileName) {
+        return ALLOWED_TYPES.contains(getFileExtension(fileName).toLowerCase());
+    }
+    
+    /**
+     * 为文件分配上传目录中的保存路径
+     */
+    public Path newStoragePath(String originalFileName) throws IOException {
+        // 创建上传目录
+        Path uploadPath = Paths.get(UPLOAD_DIR);
+        if (!Files.exists(uploadPath)) {
+            Files.createDirectories(uploadPath);
+        }
+        
+        // 生成唯一文件名
+        String extension = getFileExtension(originalFileName);
+        return uploadPath.resolve(UUID.randomUUID().toString() + "." + extension);
+    }
+    
     /**
      * 验证文件
      */
@@ -91,16 +155,7 @@ public class DocumentService {
      * 保存文件到磁盘
      */
     private String saveFile(MultipartFile file) throws IOException {
-        // 创建上传目录
-        Path uploadPath = Paths.get(UPLOAD_DIR);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
-        }
-        
-        // 生成唯一文件名
-        String extension = getFileExtension(file.getOriginalFilename());
-        String fileName = UUID.randomUUID().toString() + "." + extension;
-        Path filePath = uploadPath.resolve(fileName);
+        Path filePath = newStoragePath(file.getOriginalFilename());
         
         // 保存文件
         Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
@@ -1,20 +1,36 @@
 package com.ai.assistant.service;
 
+import com.ai.assistant.config.IngestionConfig;
 import com.ai.assistant.entity.DocumentChunk;
 import com.ai.assistant.entity.KnowledgeBase;
 import com.ai.assistant.mapper.KnowledgeBaseMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.document.Document;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+/**
+ * 文档入库流水线
+ *
+ * 一篇文档依次经过 提取 → 切块 → 嵌入 → 写入 四个阶段，每个阶段有独立的线程池和有界队列：
+ * 提取和切块按 CPU 核数并行，嵌入阶段以等待网络为主、并发更高，写入阶段串行化数据库和向量存储的写操作。
+ * 批量上传时各阶段同时处理不同的文档，而不是每篇文档在一个线程里从头串行到尾。
+ * 下游队列已满时上游线程阻塞等待，内存中积压的全文和块数量有上限。
+ * 文档由 {@link IngestionJobService} 按任务租约提交，处理结果通过返回的 future 交回任务服务决定重试或结束。
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
@@ -25,101 +41,274 @@ public class DocumentVectorizationService {
     private final CustomVectorStoreService customVectorStoreService;
     private final DocumentService documentService;
     private final KnowledgeBaseMapper knowledgeBaseMapper;
-    private final EmbeddingService embeddingService;
+    private final ChunkEmbeddingCache chunkEmbeddingCache;
+    private final IngestionConfig config;
+    
+    private ThreadPoolExecutor extractExecutor;
+    private ThreadPoolExecutor chunkExecutor;
+    private ThreadPoolExecutor embedExecutor;
+    private ThreadPoolExecutor persistExecutor;
+    private List<StageDef> stages;
+    
+    /**
+     * 一篇文档在各阶段之间传递的处理状态
+     */
+    private static final class IngestionTask {
+        private final String documentId;
+        private com.ai.assistant.entity.Document doc;
+        private KnowledgeBase kb;
+        private String text;
+        private List<TextChunkingService.TextChunk> textChunks;
+        private List<DocumentChunk> chunks;
+        private List<float[]> embeddings;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        
+        IngestionTask(String documentId) {
+            this.documentId = documentId;
+        }
+    }
+    
+    @PostConstruct
+    public void init() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        extractExecutor = stagePool("ingest-extract",
+                config.getExtractThreads() > 0 ? config.getExtractThreads() : cores, config.getQueueCapacity());
+        chunkExecutor = stagePool("ingest-chunk",
+                config.getChunkThreads() > 0 ? config.getChunkThreads() : cores, config.getStageQueueCapacity());
+        embedExecutor = stagePool("ingest-embed", config.getEmbedThreads(), config.getStageQueueCapacity());
+        persistExecutor = stagePool("ingest-persist", config.getPersistThreads(), config.getStageQueueCapacity());
+        stages = List.of(
+                new StageDef("提取", extractExecutor, this::extract),
+                new StageDef("切块", chunkExecutor, this::chunk),
+                new StageDef("嵌入", embedExecutor, this::embed),
+                new StageDef("写入", persistExecutor, this::persist));
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : List.of(extractExecutor, chunkExecutor, embedExecutor, persistExecutor)) {
+            executor.shutdown();
+        }
+    }
+    
+    /**
+     * 提交文档进入流水线，提取队列已满时等待空位；文档处理完成或跳过时 future 正常结束，任一阶段失败时异常结束
+     */
+    public CompletableFuture<Void> processDocument(String documentId) {
+        IngestionTask task = new IngestionTask(documentId);
+        advance(task, 0);
+        return task.result;
+    }
     
     /**
-     * 异步处理文档
+     * 提取阶段：校验状态、读取配置并提取全文；PDF 逐页提取并直接切块，不生成全文。返回 false 表示跳过该文档
      */
-    @Async
-    public void processDocument(String documentId) {
+    private boolean extract(IngestionTask task) {
+        String documentId = task.documentId;
         log.info("开始处理文档: {}", documentId);
         
-        try {
-            // 获取文档信息
-            com.ai.assistant.entity.Document doc = documentService.getById(documentId);
-            if (doc == null) {
-                log.error("文档不存在: {}", documentId);
-                return;
-            }
+        // 获取文档信息
+        com.ai.assistant.entity.Document doc = documentService.getById(documentId);
+        if (doc == null) {
+            log.error("文档不存在: {}", documentId);
+            return false;
+        }
+        
+        // 幂等性检查：已完成的文档跳过；处理中的文档由任务租约保证只有一个实例在处理，这里是中断后的恢复
+        if ("COMPLETED".equals(doc.getStatus())) {
+            log.warn("文档已处理完成，跳过重复处理: {}", documentId);
+            return false;
+        }
+        
+        // 更新状态为处理中
+        documentService.updateStatus(documentId, "PROCESSING", null);
+        
+        // 获取知识库配置
+        KnowledgeBase kb = knowledgeBaseMapper.selectById(doc.getKnowledgeBaseId());
+        if (kb == null) {
+            throw new RuntimeException("知识库不存在: " + doc.getKnowledgeBaseId());
+        }
+        
+        // 清理上次中断或失败的尝试已写入的块和向量
+        List<String> staleVectorIds = textChunkingService.deleteChunks(documentId);
+        if (!staleVectorIds.isEmpty()) {
+            log.info("清理文档 {} 上次处理残留的 {} 个块", documentId, staleVectorIds.size());
+            customVectorStoreService.deleteVectors(staleVectorIds, doc.getKnowledgeBaseId());
+        }
+        
+        task.doc = doc;
+        task.kb = kb;
+        if (documentProcessorService.supportsPages(doc.getFileType())) {
+            TextChunkingService.PageChunker chunker = textChunkingService.pageChunker(
+                    kb.getChunkSize(), kb.getChunkOverlap(), config.getPdfWindowPages());
+            int pages = documentProcessorService.extractPdfPages(doc.getFilePath(), chunker::addPage);
+            task.textChunks = chunker.finish();
+            log.info("PDF 按页提取完成: {}，共 {} 页", documentId, pages);
+        } else {
+            task.text = documentProcessorService.extractText(doc.getFilePath(), doc.getFileType());
+        }
+        return true;
+    }
+    
+    /**
+     * 切块阶段：分块（按页提取的文档已在提取时切好）并分配块ID，块在写入阶段才落库
+     */
+    private boolean chunk(IngestionTask task) {
+        if (task.textChunks == null) {
+            task.textChunks = textChunkingService.splitIntoChunks(
+                    task.text, task.kb.getChunkSize(), task.kb.getChunkOverlap());
+            task.text = null;
+        }
+        task.chunks = textChunkingService.prepareChunks(task.documentId, task.textChunks);
+        return true;
+    }
+    
+    /**
+     * 嵌入阶段：内容未变的块直接复用缓存的向量，只为新增或变化的块请求嵌入接口
+     */
+    private boolean embed(IngestionTask task) {
+        List<String> contents = task.chunks.stream()
+                .map(DocumentChunk::getContent)
+                .collect(Collectors.toList());
+        
+        log.info("使用模型 {} 批量生成嵌入向量，数量: {}", task.kb.getEmbeddingModel(), contents.size());
+        task.embeddings = chunkEmbeddingCache.embedBatch(contents, task.kb.getEmbeddingModel());
+        return true;
+    }
+    
+    /**
+     * 写入阶段：保存文档块、写入向量存储并更新文档状态
+     */
+    private boolean persist(IngestionTask task) {
+        com.ai.assistant.entity.Document doc = task.doc;
+        List<DocumentChunk> documentChunks = task.chunks;
+        
+        // 文档级过滤属性随每个块写入元数据，供检索时按标签、分类、创建时间过滤
+        List<String> tags = documentService.toDTO(doc).getTags();
+        
+        // 创建自定义向量数据列表
+        List<CustomVectorStoreService.VectorData> vectorDataList = new ArrayList<>();
+        for (int i = 0; i < documentChunks.size(); i++) {
+            DocumentChunk chunk = documentChunks.get(i);
+            TextChunkingService.TextChunk textChunk = task.textChunks.get(i);
+            float[] embedding = task.embeddings.get(i);
             
-            // 幂等性检查：如果文档已经在处理中或已完成，则跳过
-            if ("PROCESSING".equals(doc.getStatus())) {
-                log.warn("文档正在处理中，跳过重复处理: {}", documentId);
-                return;
+            // 创建元数据
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("documentId", task.documentId);
+            metadata.put("documentName", doc.getFileName());
+            metadata.put("knowledgeBaseId", doc.getKnowledgeBaseId());
+            metadata.put("chunkIndex", chunk.getChunkIndex());
+            metadata.put("chunkId", chunk.getId());
+            if (textChunk.getPageStart() != null) {
+                metadata.put("pageStart", textChunk.getPageStart());
+                metadata.put("pageEnd", textChunk.getPageEnd());
             }
-            
-            if ("COMPLETED".equals(doc.getStatus())) {
-                log.warn("文档已处理完成，跳过重复处理: {}", documentId);
-                return;
+            if (tags != null) {
+                metadata.put("tags", tags);
             }
-            
-            // 更新状态为处理中
-            documentService.updateStatus(documentId, "PROCESSING", null);
-            
-            // 获取知识库配置
-            KnowledgeBase kb = knowledgeBaseMapper.selectById(doc.getKnowledgeBaseId());
-            if (kb == null) {
-                throw new RuntimeException("知识库不存在: " + doc.getKnowledgeBaseId());
+            if (doc.getCategory() != null) {
+                metadata.put("category", doc.getCategory());
             }
-            
-            // 1. 提取文本
-            String text = documentProcessorService.extractText(doc.getFilePath(), doc.getFileType());
-            
-            // 2. 分块
-            List<TextChunkingService.TextChunk> textChunks = textChunkingService.splitIntoChunks(
-                    text, kb.getChunkSize(), kb.getChunkOverlap());
-            
-            // 3. 保存文档块
-            List<DocumentChunk> documentChunks = textChunkingService.saveChunks(documentId, textChunks);
-            
-            // 4. 向量化并存储
-            // 批量生成嵌入向量，使用知识库指定的模型
-            List<String> contents = documentChunks.stream()
-                    .map(DocumentChunk::getContent)
-                    .collect(Collectors.toList());
-            
-            log.info("使用模型 {} 批量生成嵌入向量，数量: {}", kb.getEmbeddingModel(), contents.size());
-            List<float[]> embeddings = embeddingService.embedBatch(contents, kb.getEmbeddingModel());
-            
-            // 创建自定义向量数据列表
-            List<CustomVectorStoreService.VectorData> vectorDataList = new ArrayList<>();
-            for (int i = 0; i < documentChunks.size(); i++) {
-                DocumentChunk chunk = documentChunks.get(i);
-                float[] embedding = embeddings.get(i);
-                
-                // 创建元数据
-                Map<String, Object> metadata = new HashMap<>();
-                metadata.put("documentId", documentId);
-                metadata.put("documentName", doc.getFileName());
-                metadata.put("knowledgeBaseId", doc.getKnowledgeBaseId());
-                metadata.put("chunkIndex", chunk.getChunkIndex());
-                metadata.put("chunkId", chunk.getId());
-                
-                // 创建向量数据（使用我们自己的存储，不依赖Spring AI）
-                CustomVectorStoreService.VectorData vectorData = new CustomVectorStoreService.VectorData(
-                    chunk.getId(),
-                    chunk.getContent(),
-                    embedding,
-                    metadata
-                );
-                vectorDataList.add(vectorData);
-                
-                // 更新文档块的向量ID
-                textChunkingService.updateVectorId(chunk.getId(), chunk.getId());
+            if (doc.getCreatedAt() != null) {
+                metadata.put("createdAt", doc.getCreatedAt());
             }
             
-            // 批量添加到自定义向量存储（完全控制，使用知识库指定的embedding）
-            customVectorStoreService.addVectors(vectorDataList);
-            
-            // 更新文档状态和块数量
-            documentService.updateChunkCount(documentId, documentChunks.size());
-            documentService.updateStatus(documentId, "COMPLETED", null);
-            
-            log.info("文档处理完成: {}, 共 {} 个块，使用模型: {}", documentId, documentChunks.size(), kb.getEmbeddingModel());
-            
-        } catch (Exception e) {
-            log.error("文档处理失败: {}", documentId, e);
-            documentService.updateStatus(documentId, "FAILED", e.getMessage());
+            // 创建向量数据（使用我们自己的存储，不依赖Spring AI）
+            vectorDataList.add(new CustomVectorStoreService.VectorData(
+                chunk.getId(),
+                chunk.getContent(),
+                embedding,
+                metadata
+            ));
+        }
+        
+        // 文档块的向量ID在切块时已设为块ID，与向量一起写入
+        textChunkingService.insertChunks(task.documentId, documentChunks);
+        
+        // 批量添加到自定义向量存储（完全控制，使用知识库指定的embedding）
+        customVectorStoreService.addVectors(vectorDataList);
+        
+        // 更新文档状态和块数量
+        documentService.updateChunkCount(task.documentId, documentChunks.size());
+        documentService.updateStatus(task.documentId, "COMPLETED", null);
+        
+        log.info("文档处理完成: {}, 共 {} 个块，使用模型: {}", task.documentId, documentChunks.size(), task.kb.getEmbeddingModel());
+        return true;
+    }
+    
+    private interface Stage {
+        /**
+         * 返回 false 表示文档无需继续处理
+         */
+        boolean run(IngestionTask task) throws Exception;
+    }
+    
+    private static final class StageDef {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final Stage stage;
+        
+        StageDef(String name, ThreadPoolExecutor executor, Stage stage) {
+            this.name = name;
+            this.executor = executor;
+            this.stage = stage;
         }
     }
+    
+    /**
+     * 把文档交给第 index 个阶段的线程池，该阶段成功后继续交给下一阶段；失败时以异常结束任务的 future
+     */
+    private void advance(IngestionTask task, int index) {
+        if (index >= stages.size()) {
+            task.result.complete(null);
+            return;
+        }
+        StageDef def = stages.get(index);
+        try {
+            def.executor.execute(() -> {
+                boolean proceed;
+                try {
+                    proceed = def.stage.run(task);
+                } catch (Exception e) {
+                    log.error("文档处理失败（{}阶段）: {}", def.name, task.documentId, e);
+                    task.result.completeExceptionally(e);
+                    return;
+                }
+                if (proceed) {
+                    advance(task, index + 1);
+                } else {
+                    task.result.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 关闭过程中提交，任务租约到期后由其他实例或重启后接管
+            task.result.completeExceptionally(e);
+        }
+    }
+    
+    /**
+     * 阶段线程池：固定线程数、有界队列，队列满时提交方阻塞等待而不是拒绝
+     */
+    private static ThreadPoolExecutor stagePool(String name, int threads, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)),
+                r -> {
+                    Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (r, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException(name + " 已关闭");
+                    }
+                    try {
+                        executor.getQueue().put(r);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(e);
+                    }
+                });
+    }
 }
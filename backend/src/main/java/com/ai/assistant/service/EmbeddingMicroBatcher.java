@@ -0,0 +1,131 @@
+package com.ai.assistant.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨调用方的嵌入请求微批合并器
+ *
+ * 同一模型在等待窗口内到达的请求合并为一次批量嵌入调用，结果按各请求的文本数拆回给各自的 future。
+ * 窗口从该模型队列中第一个请求到达时开始计时，累计文本数达到上限时不再等待、立即发送。
+ */
+@Slf4j
+class EmbeddingMicroBatcher {
+
+    /**
+     * 实际发送批量嵌入请求，返回与输入一一对应的向量
+     */
+    interface Sender {
+        List<float[]> send(List<String> texts, String modelId);
+    }
+
+    private static final class Request {
+        private final List<String> texts;
+        private final CompletableFuture<List<float[]>> future = new CompletableFuture<>();
+
+        Request(List<String> texts) {
+            this.texts = texts;
+        }
+    }
+
+    private static final class Batch {
+        private final String modelId;
+        private final List<Request> requests = new ArrayList<>();
+        private int textCount;
+
+        Batch(String modelId) {
+            this.modelId = modelId;
+        }
+    }
+
+    private final Sender sender;
+    private final long lingerMs;
+    private final int maxInputs;
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+
+    /**
+     * 各模型正在等待发送的批次，访问在 this 上同步
+     */
+    private final Map<String, Batch> pending = new HashMap<>();
+
+    EmbeddingMicroBatcher(Sender sender, long lingerMs, int maxInputs,
+                          ScheduledExecutorService timer, Executor executor) {
+        this.sender = sender;
+        this.lingerMs = lingerMs;
+        this.maxInputs = Math.max(maxInputs, 1);
+        this.timer = timer;
+        this.executor = executor;
+    }
+
+    CompletableFuture<List<float[]>> submit(List<String> texts, String modelId) {
+        Request request = new Request(texts);
+        String key = modelId != null ? modelId : "";
+        Batch ready = null;
+        synchronized (this) {
+            Batch batch = pending.get(key);
+            if (batch == null) {
+                batch = new Batch(modelId);
+                pending.put(key, batch);
+                Batch scheduled = batch;
+                timer.schedule(() -> flush(key, scheduled), lingerMs, TimeUnit.MILLISECONDS);
+            }
+            batch.requests.add(request);
+            batch.textCount += texts.size();
+            if (batch.textCount >= maxInputs) {
+                pending.remove(key);
+                ready = batch;
+            }
+        }
+        if (ready != null) {
+            Batch full = ready;
+            executor.execute(() -> send(full));
+        }
+        return request.future;
+    }
+
+    /**
+     * 等待窗口到期；批次已因满额提前发送时跳过
+     */
+    private void flush(String key, Batch batch) {
+        synchronized (this) {
+            if (!pending.remove(key, batch)) {
+                return;
+            }
+        }
+        executor.execute(() -> send(batch));
+    }
+
+    private void send(Batch batch) {
+        List<String> texts = new ArrayList<>(batch.textCount);
+        for (Request request : batch.requests) {
+            texts.addAll(request.texts);
+        }
+        if (batch.requests.size() > 1) {
+            log.debug("合并 {} 个嵌入请求共 {} 条文本为一次调用，模型: {}",
+                    batch.requests.size(), texts.size(), batch.modelId);
+        }
+
+        try {
+            List<float[]> results = sender.send(texts, batch.modelId);
+            int offset = 0;
+            for (Request request : batch.requests) {
+                int end = offset + request.texts.size();
+                request.future.complete(new ArrayList<>(results.subList(offset, end)));
+                offset = end;
+            }
+        } catch (Throwable e) {
+            for (Request request : batch.requests) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.ai.assistant.service;
 
+import com.ai.assistant.config.EmbeddingConfig;
 import com.ai.assistant.entity.ModelProvider;
 import com.ai.assistant.mapper.ModelProviderMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.MetadataMode;
@@ -12,8 +14,23 @@ import org.springframework.ai.openai.OpenAiEmbeddingModel;
 import org.springframework.ai.openai.OpenAiEmbeddingOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -23,6 +40,91 @@ public class EmbeddingService {
     
     private final EmbeddingModel embeddingModel;
     private final ModelProviderMapper modelProviderMapper;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final EmbeddingConfig config;
+    private final LlmHttpClients llmHttpClients;
+    
+    /**
+     * 按模型ID缓存解析出的提供商与EmbeddingModel，提供商增删改时清空
+     */
+    private final Map<String, ResolvedModel> resolvedModels = new ConcurrentHashMap<>();
+    
+    /**
+     * 提供商配置版本，每次清空解析缓存时递增；解析期间版本变化则不缓存结果
+     */
+    private final AtomicLong providerGeneration = new AtomicLong();
+    
+    /**
+     * 模型解析结果；provider 为 null 表示使用默认配置的EmbeddingModel
+     */
+    private static final class ResolvedModel {
+        private final ModelProvider provider;
+        private final EmbeddingModel model;
+        private final EmbeddingSource source;
+        
+        ResolvedModel(ModelProvider provider, EmbeddingModel model, EmbeddingSource source) {
+            this.provider = provider;
+            this.model = model;
+            this.source = source;
+        }
+    }
+    
+    /**
+     * 嵌入向量的实际来源：key 由提供商ID、Base URL 和实际请求的模型名组成，model 为实际请求的模型名
+     */
+    public static final class EmbeddingSource {
+        private final String key;
+        private final String model;
+        
+        EmbeddingSource(String key, String model) {
+            this.key = key;
+            this.model = model;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+        
+        public String getModel() {
+            return model;
+        }
+    }
+    
+    /**
+     * 每个提供商的并发请求许可
+     */
+    private final Map<String, Semaphore> providerPermits = new ConcurrentHashMap<>();
+    
+    /**
+     * 子批次请求线程；提交前已取得提供商许可，同时在请求的线程数不超过各提供商并发上限之和，
+     * 限流退避中的线程不占用许可
+     */
+    private final AtomicInteger embeddingThreadCount = new AtomicInteger();
+    private final ExecutorService embeddingExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "embedding-" + embeddingThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * 微批等待窗口计时线程，只负责触发，发送在请求线程池上执行
+     */
+    private final ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "embedding-linger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * 合并并发到达的小批量请求（文档入库的块和检索查询）
+     */
+    private EmbeddingMicroBatcher microBatcher;
+    
+    @PostConstruct
+    public void init() {
+        microBatcher = new EmbeddingMicroBatcher(this::embedBatchNow, config.getMicroBatch().getLingerMs(),
+                config.getBatch().getMaxInputsPerRequest(), lingerTimer, embeddingExecutor);
+    }
     
     /**
      * 生成单个文本的嵌入向量
@@ -33,12 +135,21 @@ public class EmbeddingService {
     
     /**
      * 使用指定模型生成单个文本的嵌入向量
+     * 结果按（规范化文本, 模型）缓存，重复的查询不再请求嵌入接口
      */
     public float[] embed(String text, String modelId) {
         if (text == null || text.trim().isEmpty()) {
             throw new IllegalArgumentException("文本不能为空");
         }
         
+        return queryEmbeddingCache.get(text, modelId, () -> embedUncached(text, modelId));
+    }
+    
+    private float[] embedUncached(String text, String modelId) {
+        if (config.getMicroBatch().isEnabled()) {
+            return await(microBatcher.submit(List.of(text), modelId)).get(0);
+        }
+        
         try {
             EmbeddingModel embeddingModel = getEmbeddingModel(modelId);
             EmbeddingResponse response = embeddingModel.embedForResponse(List.of(text));
@@ -62,31 +173,65 @@ public class EmbeddingService {
     
     /**
      * 使用指定模型批量生成嵌入向量
+     * 
+     * 不足一个请求上限的小批量先进入微批合并器，与等待窗口内同一模型的其他请求合并发送
      */
     public List<float[]> embedBatch(List<String> texts, String modelId) {
         if (texts == null || texts.isEmpty()) {
             throw new IllegalArgumentException("文本列表不能为空");
         }
         
+        if (config.getMicroBatch().isEnabled() && texts.size() < config.getBatch().getMaxInputsPerRequest()) {
+            return await(microBatcher.submit(texts, modelId));
+        }
+        return embedBatchNow(texts, modelId);
+    }
+    
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+    
+    /**
+     * 立即发送批量嵌入请求
+     * 
+     * 按估算token数和文本数上限切分为子批次，同一提供商的子批次在并发上限内并行请求，
+     * 被限流时退避重试，结果按输入顺序拼接
+     */
+    private List<float[]> embedBatchNow(List<String> texts, String modelId) {
         try {
             log.info("========== 开始批量生成嵌入向量 ==========");
             log.info("请求模型: {}", modelId);
             log.info("文本数量: {}", texts.size());
             log.info("文本样例: {}", texts.get(0).substring(0, Math.min(100, texts.get(0).length())) + "...");
             
-            EmbeddingModel embeddingModel = getEmbeddingModel(modelId);
+            ResolvedModel resolved = resolve(modelId);
+            ModelProvider provider = resolved.provider;
+            EmbeddingModel embeddingModel = resolved.model;
+            Semaphore permits = providerPermits.computeIfAbsent(provider != null ? provider.getId() : "default",
+                    key -> new Semaphore(Math.max(config.getBatch().getConcurrencyPerProvider(), 1)));
+            List<int[]> batches = splitBatches(texts);
             
-            log.info("开始调用嵌入API...");
+            log.info("开始调用嵌入API，共 {} 个子批次...", batches.size());
             long startTime = System.currentTimeMillis();
             
-            EmbeddingResponse response = embeddingModel.embedForResponse(texts);
+            List<float[]> embeddings;
+            if (batches.size() == 1) {
+                permits.acquire();
+                embeddings = embedWithRetry(embeddingModel, texts, permits);
+            } else {
+                embeddings = embedConcurrently(embeddingModel, texts, batches, permits);
+            }
             
             long endTime = System.currentTimeMillis();
             log.info("API调用完成，耗时: {} ms", endTime - startTime);
             
-            List<float[]> embeddings = response.getResults().stream()
-                    .map(result -> result.getOutput())
-                    .collect(Collectors.toList());
+            if (embeddings.size() != texts.size()) {
+                throw new IllegalStateException("嵌入接口返回 " + embeddings.size() + " 个向量，请求 " + texts.size() + " 个");
+            }
             
             log.info("批量生成嵌入向量完成，模型: {}, 数量: {}, 向量维度: {}", 
                     modelId != null ? modelId : "default", embeddings.size(), 
@@ -95,6 +240,9 @@ public class EmbeddingService {
             
             return embeddings;
         } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             log.error("========== 嵌入向量生成失败 ==========");
             log.error("模型: {}", modelId);
             log.error("错误类型: {}", e.getClass().getName());
@@ -104,6 +252,162 @@ public class EmbeddingService {
         }
     }
     
+    /**
+     * 并发请求各子批次：取得提供商许可后才提交，许可由子批次请求结束时释放；任一子批次失败时取消其余子批次
+     */
+    private List<float[]> embedConcurrently(EmbeddingModel embeddingModel, List<String> texts, 
+                                            List<int[]> batches, Semaphore permits) throws Exception {
+        List<Future<List<float[]>>> futures = new ArrayList<>(batches.size());
+        try {
+            for (int[] range : batches) {
+                List<String> slice = texts.subList(range[0], range[1]);
+                permits.acquire();
+                try {
+                    futures.add(embeddingExecutor.submit(() -> embedWithRetry(embeddingModel, slice, permits)));
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            
+            List<float[]> embeddings = new ArrayList<>(texts.size());
+            for (Future<List<float[]>> future : futures) {
+                embeddings.addAll(future.get());
+            }
+            return embeddings;
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException | RuntimeException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+    }
+    
+    /**
+     * 请求一个子批次，被限流时按 Retry-After 或指数退避等待后重试
+     * 
+     * 调用前须已取得一个提供商许可，返回或抛出前释放；退避等待期间归还许可，不阻塞同一提供商的其他请求
+     */
+    private List<float[]> embedWithRetry(EmbeddingModel embeddingModel, List<String> texts, 
+                                         Semaphore permits) throws InterruptedException {
+        EmbeddingConfig.Batch batch = config.getBatch();
+        boolean holding = true;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                long delay;
+                try {
+                    EmbeddingResponse response = embeddingModel.embedForResponse(texts);
+                    return response.getResults().stream()
+                            .map(result -> result.getOutput())
+                            .collect(Collectors.toList());
+                } catch (RuntimeException e) {
+                    if (attempt >= batch.getMaxRetries() || !isRateLimited(e)) {
+                        throw e;
+                    }
+                    delay = retryDelay(e, attempt, batch);
+                }
+                log.warn("嵌入接口限流，{} ms 后第 {} 次重试（子批次 {} 条）", delay, attempt + 1, texts.size());
+                permits.release();
+                holding = false;
+                Thread.sleep(delay);
+                permits.acquire();
+                holding = true;
+            }
+        } finally {
+            if (holding) {
+                permits.release();
+            }
+        }
+    }
+    
+    /**
+     * 按文本数上限和估算token上限贪心切分，返回各子批次的 [起, 止) 下标；超长的单条文本单独成批
+     */
+    private List<int[]> splitBatches(List<String> texts) {
+        EmbeddingConfig.Batch batch = config.getBatch();
+        int maxInputs = Math.max(batch.getMaxInputsPerRequest(), 1);
+        int maxTokens = Math.max(batch.getMaxTokensPerRequest(), 1);
+        
+        List<int[]> batches = new ArrayList<>();
+        int start = 0;
+        int tokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            int textTokens = estimateTokens(texts.get(i));
+            if (i > start && (i - start >= maxInputs || tokens + textTokens > maxTokens)) {
+                batches.add(new int[] {start, i});
+                start = i;
+                tokens = 0;
+            }
+            if (textTokens > maxTokens) {
+                log.warn("第 {} 条文本估算 {} tokens，超过单次请求上限 {}", i, textTokens, maxTokens);
+            }
+            tokens += textTokens;
+        }
+        batches.add(new int[] {start, texts.size()});
+        return batches;
+    }
+    
+    /**
+     * 粗略估算token数：中日韩文字约每字一个token，其余字符约每4个一个token
+     */
+    static int estimateTokens(String text) {
+        int ideographs = 0;
+        int others = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (Character.isIdeographic(codePoint)) {
+                ideographs++;
+            } else {
+                others++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return ideographs + (others + 3) / 4 + 1;
+    }
+    
+    /**
+     * 是否为限流错误（HTTP 429）
+     * 
+     * 提供商客户端的4xx响应以 HttpStatusCodeException 抛出（见 {@link LlmHttpClients}）；
+     * application.yml 配置的默认EmbeddingModel仍使用 Spring AI 的错误处理，只能从"状态码 - 响应体"消息判断
+     */
+    private static boolean isRateLimited(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof HttpStatusCodeException
+                    && ((HttpStatusCodeException) e).getStatusCode().value() == 429) {
+                return true;
+            }
+            String message = e.getMessage();
+            if (message != null && (message.startsWith("429") || message.contains("Too Many Requests")
+                    || message.toLowerCase().contains("rate limit"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 重试等待时间：优先使用响应头 Retry-After 的秒数，否则指数退避并加随机抖动，均不超过退避上限
+     */
+    private static long retryDelay(Throwable error, int attempt, EmbeddingConfig.Batch batch) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof HttpStatusCodeException) {
+                var headers = ((HttpStatusCodeException) e).getResponseHeaders();
+                String retryAfter = headers != null ? headers.getFirst("Retry-After") : null;
+                if (retryAfter != null) {
+                    try {
+                        return Math.min(Long.parseLong(retryAfter.trim()) * 1000L, batch.getMaxBackoffMs());
+                    } catch (NumberFormatException ignored) {
+                        // HTTP日期格式的 Retry-After 按指数退避处理
+                    }
+                }
+            }
+        }
+        long backoff = Math.min(batch.getInitialBackoffMs() << Math.min(attempt, 20), batch.getMaxBackoffMs());
+        return backoff + ThreadLocalRandom.current().nextLong(backoff / 5 + 1);
+    }
+    
     /**
      * 获取当前使用的模型名称
      */
@@ -122,139 +426,153 @@ public class EmbeddingService {
      * 获取指定模型的EmbeddingModel
      */
     private EmbeddingModel getEmbeddingModel(String modelId) {
-        log.info("========== 开始查找嵌入模型提供商 ==========");
-        log.info("目标模型: {}", modelId);
+        return resolve(modelId).model;
+    }
+    
+    /**
+     * 指定模型当前解析到的嵌入来源；持久化的向量缓存按来源区分，切换提供商或修改地址后不会取到旧来源的向量
+     */
+    public EmbeddingSource embeddingSource(String modelId) {
+        return resolve(modelId).source;
+    }
+    
+    /**
+     * 解析模型对应的提供商和EmbeddingModel并缓存
+     * 
+     * 未找到提供商的结果（退回默认EmbeddingModel）同样缓存，直到提供商配置变更时 {@link #invalidateProviders()} 清空；
+     * 读取提供商表失败时不缓存，下次调用重新查找；解析期间配置变更时结果只用于本次调用
+     */
+    private ResolvedModel resolve(String modelId) {
+        String key = modelId != null ? modelId : "";
+        ResolvedModel resolved = resolvedModels.get(key);
+        if (resolved != null) {
+            return resolved;
+        }
         
-        // 尝试从数据库获取配置（支持OpenAI和兼容OpenAI API的提供商）
+        long generation = providerGeneration.get();
+        ModelProvider provider;
         try {
-            List<ModelProvider> providers = modelProviderMapper.selectList(null);
-            log.info("数据库中共有 {} 个提供商", providers.size());
-            
-            // 打印所有提供商信息
+            provider = findProvider(modelId);
+        } catch (Exception e) {
+            log.error("从数据库获取API配置失败: {}", e.getMessage(), e);
+            return new ResolvedModel(null, createEmbeddingModel(null, modelId), sourceOf(null, modelId));
+        }
+        resolved = new ResolvedModel(provider, createEmbeddingModel(provider, modelId), sourceOf(provider, modelId));
+        resolvedModels.put(key, resolved);
+        if (providerGeneration.get() != generation) {
+            // 清空发生在读取提供商之后，撤回可能基于旧配置的结果
+            resolvedModels.remove(key, resolved);
+        }
+        return resolved;
+    }
+    
+    /**
+     * 模型提供商配置变更后清空解析缓存和客户端，下次调用按新配置重新解析；
+     * 查询向量缓存一并清空，避免沿用旧提供商生成的向量
+     */
+    public void invalidateProviders() {
+        providerGeneration.incrementAndGet();
+        resolvedModels.clear();
+        llmHttpClients.evictOpenAiApis();
+        queryEmbeddingCache.clear();
+        log.info("模型提供商配置已变更，清空嵌入模型缓存");
+    }
+    
+    /**
+     * 查找支持指定模型且配置了API Key的提供商，找不到时返回 null；读取提供商表失败时抛出异常
+     */
+    private ModelProvider findProvider(String modelId) {
+        // 从数据库获取配置（支持OpenAI和兼容OpenAI API的提供商）
+        List<ModelProvider> providers = modelProviderMapper.selectList(null);
+        log.debug("查找嵌入模型 {} 的提供商，数据库中共有 {} 个提供商", modelId, providers.size());
+        
+        ModelProvider provider = null;
+        
+        // 如果指定了模型ID，尝试找到包含该模型的提供商
+        if (modelId != null && !modelId.isEmpty()) {
             for (ModelProvider p : providers) {
-                log.info("提供商: {}, 类型: {}, 激活: {}, Base URL: {}", 
-                        p.getName(), p.getType(), p.getIsActive(), p.getBaseUrl());
-                if (p.getModelsJson() != null && !p.getModelsJson().isEmpty()) {
-                    log.debug("  支持的模型: {}", p.getModelsJson().substring(0, Math.min(200, p.getModelsJson().length())));
+                if (!p.getIsActive() || !"OPENAI".equalsIgnoreCase(p.getType())) {
+                    continue;
+                }
+                
+                // 检查提供商的模型列表中是否包含该模型
+                if (p.getModelsJson() != null && p.getModelsJson().contains(modelId)) {
+                    provider = p;
+                    log.debug("精确匹配: 提供商 {} 支持模型 {}", p.getName(), modelId);
+                    break;
                 }
             }
             
-            ModelProvider provider = null;
-            
-            // 如果指定了模型ID，尝试找到包含该模型的提供商
-            if (modelId != null && !modelId.isEmpty()) {
-                log.info("开始精确匹配，查找支持模型 {} 的提供商", modelId);
-                
-                // 遍历所有激活的提供商，查找包含该模型的提供商
+            // 如果没找到，尝试模糊匹配
+            if (provider == null) {
+                String modelLower = modelId.toLowerCase();
                 for (ModelProvider p : providers) {
-                    if (!p.getIsActive()) {
-                        log.debug("跳过未激活的提供商: {}", p.getName());
-                        continue;
-                    }
-                    
-                    if (!"OPENAI".equalsIgnoreCase(p.getType())) {
-                        log.debug("跳过非OpenAI类型的提供商: {} (类型: {})", p.getName(), p.getType());
+                    if (!p.getIsActive() || !"OPENAI".equalsIgnoreCase(p.getType())) {
                         continue;
                     }
                     
-                    // 检查提供商的模型列表中是否包含该模型
-                    if (p.getModelsJson() != null && !p.getModelsJson().isEmpty()) {
-                        if (p.getModelsJson().contains(modelId)) {
-                            provider = p;
-                            log.info("✓ 精确匹配成功! 找到支持模型 {} 的提供商: {}", modelId, p.getName());
-                            break;
-                        } else {
-                            log.debug("提供商 {} 的模型列表不包含 {}", p.getName(), modelId);
-                        }
+                    // 特殊处理：硅基流动和NVIDIA支持BAAI模型
+                    String providerName = p.getName().toLowerCase();
+                    if ((providerName.contains("silicon") || providerName.contains("nvidia")) 
+                            && modelLower.contains("baai")) {
+                        provider = p;
+                        log.debug("模糊匹配: 提供商 {} 支持模型 {}", p.getName(), modelId);
+                        break;
                     }
                 }
-                
-                // 如果没找到，尝试模糊匹配（通过模型名称前缀）
-                if (provider == null) {
-                    log.info("精确匹配失败，开始模糊匹配...");
-                    
-                    for (ModelProvider p : providers) {
-                        if (!p.getIsActive() || !"OPENAI".equalsIgnoreCase(p.getType())) {
-                            continue;
-                        }
-                        
-                        // 检查模型名称是否以提供商名称开头，或者提供商支持该模型
-                        String providerName = p.getName().toLowerCase();
-                        String modelLower = modelId.toLowerCase();
-                        
-                        log.debug("尝试模糊匹配: 提供商={}, 模型={}", providerName, modelLower);
-                        
-                        // 特殊处理：硅基流动支持BAAI模型
-                        if (providerName.contains("silicon") && modelLower.contains("baai")) {
-                            provider = p;
-                            log.info("✓ 模糊匹配成功! 提供商 {} (包含'silicon') 支持模型 {} (包含'baai')", 
-                                    p.getName(), modelId);
-                            break;
-                        }
-                        
-                        // 特殊处理：NVIDIA支持BAAI模型
-                        if (providerName.contains("nvidia") && modelLower.contains("baai")) {
-                            provider = p;
-                            log.info("✓ 模糊匹配成功! 提供商 {} (包含'nvidia') 支持模型 {} (包含'baai')", 
-                                    p.getName(), modelId);
-                            break;
-                        }
-                    }
-                }
-            }
-            
-            // 如果还没找到，使用第一个激活的OpenAI类型提供商
-            if (provider == null) {
-                log.warn("未找到匹配的提供商，使用默认的激活提供商");
-                provider = providers.stream()
-                        .filter(p -> "OPENAI".equalsIgnoreCase(p.getType()) && p.getIsActive())
-                        .findFirst()
-                        .orElse(null);
-                
-                if (provider != null) {
-                    log.info("使用默认的激活提供商: {}", provider.getName());
-                }
             }
-            
-            if (provider != null && provider.getApiKey() != null && !provider.getApiKey().isEmpty()) {
-                log.info("========== 提供商选择完成 ==========");
-                log.info("最终选择的提供商: {}", provider.getName());
-                log.info("Base URL: {}", provider.getBaseUrl());
-                log.info("模型: {}", modelId);
-                log.info("API Key: {}...{}", 
-                        provider.getApiKey().substring(0, Math.min(10, provider.getApiKey().length())),
-                        provider.getApiKey().length() > 10 ? 
-                            provider.getApiKey().substring(provider.getApiKey().length() - 4) : "");
-                
-                // 构造等效的curl命令用于调试
-                String curlCommand = String.format(
-                    "curl -X POST '%s/embeddings' \\\n" +
-                    "  -H 'Authorization: Bearer %s' \\\n" +
-                    "  -H 'Content-Type: application/json' \\\n" +
-                    "  -d '{\"model\": \"%s\", \"input\": [\"测试文本\"]}'",
-                    provider.getBaseUrl(),
-                    provider.getApiKey().substring(0, Math.min(10, provider.getApiKey().length())) + "...",
-                    modelId != null ? modelId : "text-embedding-ada-002"
-                );
-                log.info("等效的curl命令:\n{}", curlCommand);
-                log.info("==========================================");
-                
-                OpenAiApi openAiApi = new OpenAiApi(provider.getBaseUrl(), provider.getApiKey());
-                // 如果指定了模型ID，使用指定的模型，否则使用默认模型
-                String actualModelId = modelId != null ? modelId : "text-embedding-ada-002";
-                OpenAiEmbeddingOptions options = OpenAiEmbeddingOptions.builder()
-                        .model(actualModelId)
-                        .build();
-                return new OpenAiEmbeddingModel(openAiApi, MetadataMode.EMBED, options);
-            } else {
-                log.error("未找到可用的提供商或API Key为空");
+        }
+        
+        // 如果还没找到，使用第一个激活的OpenAI类型提供商
+        if (provider == null) {
+            provider = providers.stream()
+                    .filter(p -> "OPENAI".equalsIgnoreCase(p.getType()) && p.getIsActive())
+                    .findFirst()
+                    .orElse(null);
+            if (provider != null) {
+                log.debug("未找到支持模型 {} 的提供商，使用默认的激活提供商: {}", modelId, provider.getName());
             }
-        } catch (Exception e) {
-            log.error("从数据库获取API配置失败: {}", e.getMessage(), e);
         }
         
-        // 使用默认的EmbeddingModel（从Spring配置）
-        log.warn("使用默认的EmbeddingModel配置（从application.yml）");
-        return embeddingModel;
+        if (provider != null && provider.getApiKey() != null && !provider.getApiKey().isEmpty()) {
+            log.info("嵌入模型 {} 使用提供商: {}, Base URL: {}", modelId, provider.getName(), provider.getBaseUrl());
+            return provider;
+        }
+        log.warn("嵌入模型 {} 未找到可用的提供商或API Key为空，使用默认配置", modelId);
+        return null;
+    }
+    
+    /**
+     * 未找到提供商时使用默认配置的EmbeddingModel，请求的模型ID不生效，来源统一记为 default
+     */
+    private static EmbeddingSource sourceOf(ModelProvider provider, String modelId) {
+        if (provider == null) {
+            return new EmbeddingSource("default", "default");
+        }
+        String actualModelId = actualModelId(modelId);
+        return new EmbeddingSource(provider.getId() + "|" + provider.getBaseUrl() + "|" + actualModelId, actualModelId);
+    }
+    
+    private static String actualModelId(String modelId) {
+        return modelId != null ? modelId : "text-embedding-ada-002";
+    }
+    
+    /**
+     * 按提供商配置创建EmbeddingModel，提供商为空时使用默认配置
+     */
+    private EmbeddingModel createEmbeddingModel(ModelProvider provider, String modelId) {
+        if (provider == null) {
+            // 使用默认的EmbeddingModel（从Spring配置）
+            log.warn("使用默认的EmbeddingModel配置（从application.yml）");
+            return embeddingModel;
+        }
+        
+        OpenAiApi openAiApi = llmHttpClients.openAiApi(provider.getBaseUrl(), provider.getApiKey());
+        // 如果指定了模型ID，使用指定的模型，否则使用默认模型
+        String actualModelId = actualModelId(modelId);
+        OpenAiEmbeddingOptions options = OpenAiEmbeddingOptions.builder()
+                .model(actualModelId)
+                .build();
+        return new OpenAiEmbeddingModel(openAiApi, MetadataMode.EMBED, options);
     }
 }
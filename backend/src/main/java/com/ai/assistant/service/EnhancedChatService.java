@@ -12,6 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Flux;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -191,6 +192,37 @@ public class EnhancedChatService {
         StringBuilder responseBuilder = new StringBuilder();      // 正式回答内容
         StringBuilder thinkingBuilder = new StringBuilder();      // 思考过程内容
         
+        // 正常结束和客户端中途断开时保存回答：在下游收到完成信号（done 事件）之前执行，出错时不保存
+        AtomicBoolean replySaved = new AtomicBoolean();
+        Runnable saveReply = () -> {
+            if (!replySaved.compareAndSet(false, true)) {
+                return;
+            }
+            log.info("✓ AI 响应完成，回答长度: {} 字符，思考长度: {} 字符", 
+                    responseBuilder.length(), thinkingBuilder.length());
+            // 保存助手消息（只保存正式回答，不包含思考内容）
+            Message assistantMessage = new Message();
+            assistantMessage.setId(assistantMessageId);
+            assistantMessage.setSessionId(sessionId);
+            assistantMessage.setRole("ASSISTANT");
+            assistantMessage.setContent(responseBuilder.toString());
+            assistantMessage.setTimestamp(System.currentTimeMillis());
+            assistantMessage.setModelId(finalModelId);
+            // 如果有思考内容，保存到 metadata
+            if (thinkingBuilder.length() > 0) {
+                assistantMessage.setMetadata("{\"thinking\":\"" + 
+                    thinkingBuilder.toString()
+                        .replace("\\", "\\\\")
+                        .replace("\"", "\\\"")
+                        .replace("\n", "\\n")
+                        .replace("\r", "\\r")
+                        .replace("\t", "\\t") + "\"}");
+            }
+            messageMapper.insert(assistantMessage);
+            sessionService.updateSessionTimestamp(sessionId);
+            log.info("✓ 助手消息已保存");
+        };
+        
         // 使用自定义多模态服务
         log.info("开始流式调用 AI 模型（多模态）...");
         return multimodalAIService.streamChat(
@@ -220,30 +252,12 @@ public class EnhancedChatService {
                 log.debug("← 收到响应块: {} 字符", chunk.length());
             }
         })
-        .doOnComplete(() -> {
-            log.info("✓ AI 响应完成，回答长度: {} 字符，思考长度: {} 字符", 
-                    responseBuilder.length(), thinkingBuilder.length());
-            // 保存助手消息（只保存正式回答，不包含思考内容）
-            Message assistantMessage = new Message();
-            assistantMessage.setId(assistantMessageId);
-            assistantMessage.setSessionId(sessionId);
-            assistantMessage.setRole("ASSISTANT");
-            assistantMessage.setContent(responseBuilder.toString());
-            assistantMessage.setTimestamp(System.currentTimeMillis());
-            assistantMessage.setModelId(finalModelId);
-            // 如果有思考内容，保存到 metadata
-            if (thinkingBuilder.length() > 0) {
-                assistantMessage.setMetadata("{\"thinking\":\"" + 
-                    thinkingBuilder.toString()
-                        .replace("\\", "\\\\")
-                        .replace("\"", "\\\"")
-                        .replace("\n", "\\n")
-                        .replace("\r", "\\r")
-                        .replace("\t", "\\t") + "\"}");
+        .doOnComplete(saveReply)
+        .doOnCancel(() -> {
+            // 尚未生成内容时不保存
+            if (responseBuilder.length() > 0) {
+                saveReply.run();
             }
-            messageMapper.insert(assistantMessage);
-            sessionService.updateSessionTimestamp(sessionId);
-            log.info("✓ 助手消息已保存");
         })
         .doOnError(error -> {
             log.error("✗ 流式调用错误: {}", error.getMessage(), error);
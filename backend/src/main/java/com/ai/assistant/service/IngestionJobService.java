@@ -0,0 +1,258 @@
+package com.ai.assistant.service;
+
+import com.ai.assistant.config.IngestionConfig;
+import com.ai.assistant.entity.IngestionJob;
+import com.ai.assistant.mapper.IngestionJobMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 持久化的文档入库任务队列
+ *
+ * 每个待向量化的文档在 ingestion_jobs 表中有一条任务记录。各实例定时轮询到期任务，以条件更新领取并取得租约，
+ * 处理期间定时续约；实例崩溃或被重启后租约到期，任务由任一实例重新领取。失败的任务按指数退避重新排队，
+ * 超过最大尝试次数后文档标记为 FAILED。任务运行期间收到的重新处理请求记录在任务上，当前尝试结束后重新排队。
+ * 启动时和之后每隔一段时间为没有任务记录的待处理和处理中文档补建任务（如上传后、建任务前实例中断）。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IngestionJobService {
+
+    private final IngestionJobMapper ingestionJobMapper;
+    private final DocumentVectorizationService documentVectorizationService;
+    private final DocumentService documentService;
+    private final IngestionConfig config;
+
+    /**
+     * 本实例的租约持有者标识
+     */
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * 本实例正在流水线中处理的任务数
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * 上次补建任务的时间，仅由轮询线程读写
+     */
+    private long lastBackfillAt;
+
+    /**
+     * 轮询线程：领取任务并提交到流水线，流水线队列满时会阻塞等待
+     */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ingestion-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * 续约线程：与轮询线程分开，提交任务阻塞时租约照常续期，不会被其他实例误接管
+     */
+    private final ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ingestion-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        scheduler.scheduleWithFixedDelay(this::poll, 0L, config.getPollIntervalMs(), TimeUnit.MILLISECONDS);
+        heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat, config.getHeartbeatSeconds(),
+                config.getHeartbeatSeconds(), TimeUnit.SECONDS);
+        log.info("入库任务轮询已启动，实例: {}", owner);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        heartbeatScheduler.shutdownNow();
+    }
+
+    /**
+     * 为文档建立或重置入库任务，并唤醒轮询线程领取；调用方（如 HTTP 请求线程）不会因流水线排队而阻塞
+     */
+    public void enqueue(String documentId) {
+        long now = System.currentTimeMillis();
+        if (ingestionJobMapper.requeue(documentId, now) == 0) {
+            try {
+                ingestionJobMapper.insert(IngestionJob.builder()
+                        .documentId(documentId)
+                        .status("PENDING")
+                        .attempts(0)
+                        .nextRunAt(now)
+                        .createdAt(now)
+                        .updatedAt(now)
+                        .build());
+            } catch (DuplicateKeyException e) {
+                // 任务正在运行：记录重新处理请求，由持有者在本次尝试结束后重新排队；若此间已结束则直接重置
+                if (ingestionJobMapper.requestRerun(documentId, now) > 0) {
+                    log.info("文档 {} 的入库任务正在运行，将在本次处理结束后重新处理", documentId);
+                    return;
+                }
+                ingestionJobMapper.requeue(documentId, now);
+            }
+        }
+        scheduler.execute(this::poll);
+    }
+
+    /**
+     * 新任务已随文档一起写入（见 {@link DocumentService#registerBatch}）后唤醒轮询线程，按本实例的并发上限领取
+     */
+    public void wakeUp() {
+        scheduler.execute(this::poll);
+    }
+
+    /**
+     * 领取到期任务和租约过期的任务，直到达到本实例的并发上限
+     */
+    private void poll() {
+        backfillIfDue();
+        try {
+            int capacity = config.getMaxInFlight() - inFlight.get();
+            if (capacity <= 0) {
+                return;
+            }
+            List<IngestionJob> jobs = ingestionJobMapper.findClaimable(System.currentTimeMillis(), capacity);
+            for (IngestionJob job : jobs) {
+                if ("RUNNING".equals(job.getStatus())) {
+                    log.warn("接管租约已过期的入库任务: {}，原持有者: {}", job.getDocumentId(), job.getLeaseOwner());
+                }
+                tryRun(job.getDocumentId());
+            }
+        } catch (Exception e) {
+            log.error("轮询入库任务失败", e);
+        }
+    }
+
+    /**
+     * 到达补建间隔时为没有任务记录的待处理和处理中文档补建任务；首次轮询时立即执行
+     */
+    private void backfillIfDue() {
+        long now = System.currentTimeMillis();
+        if (lastBackfillAt != 0 && now - lastBackfillAt < TimeUnit.SECONDS.toMillis(config.getBackfillIntervalSeconds())) {
+            return;
+        }
+        lastBackfillAt = now;
+        try {
+            int created = ingestionJobMapper.insertMissingJobs(now);
+            if (created > 0) {
+                log.info("为 {} 个未完成的文档补建入库任务", created);
+            }
+        } catch (DuplicateKeyException e) {
+            // 其他实例或上传请求同时建了任务，下次补建时再检查
+        } catch (Exception e) {
+            log.warn("补建入库任务失败: {}", e.getMessage());
+        }
+    }
+
+    private void heartbeat() {
+        if (inFlight.get() == 0) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            ingestionJobMapper.renewLeases(owner, now, now + TimeUnit.SECONDS.toMillis(config.getLeaseSeconds()));
+        } catch (Exception e) {
+            log.warn("续约入库任务失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 领取任务并提交到流水线；已被其他实例或本实例领取时直接返回
+     */
+    private void tryRun(String documentId) {
+        long now = System.currentTimeMillis();
+        long leaseUntil = now + TimeUnit.SECONDS.toMillis(config.getLeaseSeconds());
+        if (ingestionJobMapper.claim(documentId, owner, now, leaseUntil) == 0) {
+            return;
+        }
+
+        IngestionJob job = ingestionJobMapper.selectById(documentId);
+        int attempts = job != null && job.getAttempts() != null ? job.getAttempts() : 1;
+        if (attempts > config.getMaxAttempts()) {
+            // 多次在处理中途丢失租约（例如每次都导致实例崩溃），不再重试
+            finish(documentId, attempts, new IllegalStateException("处理多次中断，已达到最大尝试次数"));
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        try {
+            documentVectorizationService.processDocument(documentId)
+                    .whenComplete((ignored, error) -> {
+                        inFlight.decrementAndGet();
+                        finish(documentId, attempts, error);
+                    });
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            finish(documentId, attempts, e);
+        }
+    }
+
+    /**
+     * 结束一次尝试：成功则完成任务，失败则按退避时间重新排队或最终标记失败
+     */
+    private void finish(String documentId, int attempts, Throwable error) {
+        long now = System.currentTimeMillis();
+        try {
+            if (error == null) {
+                if (ingestionJobMapper.release(documentId, owner, "COMPLETED", now, null, now) == 0) {
+                    releaseForRerun(documentId, now);
+                }
+                return;
+            }
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+            if (attempts < config.getMaxAttempts()) {
+                long delay = retryDelaySeconds(attempts);
+                if (ingestionJobMapper.release(documentId, owner, "PENDING", now + TimeUnit.SECONDS.toMillis(delay), message, now) > 0) {
+                    documentService.updateStatus(documentId, "PENDING",
+                            "第 " + attempts + " 次处理失败，" + delay + " 秒后重试: " + message);
+                    log.warn("文档 {} 第 {} 次处理失败，{} 秒后重试: {}", documentId, attempts, delay, message);
+                } else {
+                    releaseForRerun(documentId, now);
+                }
+            } else if (ingestionJobMapper.release(documentId, owner, "FAILED", now, message, now) > 0) {
+                documentService.updateStatus(documentId, "FAILED", message);
+                log.error("文档 {} 处理失败，已尝试 {} 次: {}", documentId, attempts, message);
+            } else {
+                releaseForRerun(documentId, now);
+            }
+        } catch (Exception e) {
+            // 任务状态未更新，租约到期后会被重新领取
+            log.error("更新入库任务状态失败: {}", documentId, e);
+        }
+    }
+
+    /**
+     * 常规释放未生效时调用：运行期间收到了重新处理请求则立即重新排队；否则租约已被其他实例接管，不做处理
+     */
+    private void releaseForRerun(String documentId, long now) {
+        if (ingestionJobMapper.releaseForRerun(documentId, owner, now) > 0) {
+            documentService.updateStatus(documentId, "PENDING", null);
+            log.info("文档 {} 在处理期间被要求重新处理，已重新排队", documentId);
+            scheduler.execute(this::poll);
+        }
+    }
+
+    private long retryDelaySeconds(int attempts) {
+        long delay = config.getRetryBackoffSeconds() << Math.min(attempts - 1, 20);
+        return Math.min(delay, config.getMaxRetryBackoffSeconds());
+    }
+}
@@ -20,6 +20,7 @@ import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -151,30 +152,12 @@ public class KnowledgeBaseChatService {
         StringBuilder responseBuilder = new StringBuilder();      // 正式回答内容
         StringBuilder thinkingBuilder = new StringBuilder();      // 思考过程内容
         
-        // 使用 MultimodalAIService 以支持思考过程
-        log.info("开始流式调用 AI 模型（支持思考过程）...");
-        return multimodalAIService.streamChat(
-                provider.getApiKey(),
-                provider.getBaseUrl() != null ? provider.getBaseUrl() : "https://api.openai.com",
-                finalModelName,
-                messages,
-                provider.getTemperature() != null ? provider.getTemperature() : 0.7,
-                provider.getMaxTokens() != null ? provider.getMaxTokens() : 2048
-        )
-        .map(chunk -> {
-            // 区分思考内容和正式回答
-            if (chunk.startsWith("[[THINKING]]")) {
-                // 思考内容，单独保存
-                String thinkingChunk = chunk.substring(12);
-                thinkingBuilder.append(thinkingChunk);
-                log.debug("← 收到思考内容: {} 字符", thinkingChunk.length());
-            } else {
-                // 正式回答内容
-                responseBuilder.append(chunk);
+        // 正常结束和客户端中途断开时保存回答：在下游收到完成信号（done 事件）之前执行，出错时不保存
+        AtomicBoolean replySaved = new AtomicBoolean();
+        Runnable saveReply = () -> {
+            if (!replySaved.compareAndSet(false, true)) {
+                return;
             }
-            return chunk;
-        })
-        .doOnComplete(() -> {
             log.info("✓ AI 响应完成，回答长度: {} 字符，思考长度: {} 字符", 
                     responseBuilder.length(), thinkingBuilder.length());
             // 保存助手消息
@@ -199,15 +182,15 @@ public class KnowledgeBaseChatService {
                         return citation;
                     })
                     .collect(Collectors.toList());
-                
+            
                 Map<String, Object> metadata = new HashMap<>();
                 metadata.put("citations", citationsList);
-                
+            
                 // 如果有思考内容，也保存到 metadata
                 if (thinkingBuilder.length() > 0) {
                     metadata.put("thinking", thinkingBuilder.toString());
                 }
-                
+            
                 assistantMessage.setMetadata(objectMapper.writeValueAsString(metadata));
             } catch (Exception e) {
                 log.error("序列化 metadata 失败", e);
@@ -215,6 +198,37 @@ public class KnowledgeBaseChatService {
             
             messageMapper.insert(assistantMessage);
             log.info("✓ 助手消息已保存，包含 {} 个引用", chunks.size());
+        };
+        
+        // 使用 MultimodalAIService 以支持思考过程
+        log.info("开始流式调用 AI 模型（支持思考过程）...");
+        return multimodalAIService.streamChat(
+                provider.getApiKey(),
+                provider.getBaseUrl() != null ? provider.getBaseUrl() : "https://api.openai.com",
+                finalModelName,
+                messages,
+                provider.getTemperature() != null ? provider.getTemperature() : 0.7,
+                provider.getMaxTokens() != null ? provider.getMaxTokens() : 2048
+        )
+        .map(chunk -> {
+            // 区分思考内容和正式回答
+            if (chunk.startsWith("[[THINKING]]")) {
+                // 思考内容，单独保存
+                String thinkingChunk = chunk.substring(12);
+                thinkingBuilder.append(thinkingChunk);
+                log.debug("← 收到思考内容: {} 字符", thinkingChunk.length());
+            } else {
+                // 正式回答内容
+                responseBuilder.append(chunk);
+            }
+            return chunk;
+        })
+        .doOnComplete(saveReply)
+        .doOnCancel(() -> {
+            // 尚未生成内容时不保存
+            if (responseBuilder.length() > 0) {
+                saveReply.run();
+            }
         });
     }
     
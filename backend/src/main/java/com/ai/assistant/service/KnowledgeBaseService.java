@@ -24,6 +24,7 @@ public class KnowledgeBaseService {
     private final KnowledgeBaseMapper knowledgeBaseMapper;
     private final SessionKnowledgeBaseMapper sessionKnowledgeBaseMapper;
     private final ModelProviderMapper modelProviderMapper;
+    private final CustomVectorStoreService customVectorStoreService;
     
     /**
      * 创建知识库
@@ -43,6 +44,7 @@ public class KnowledgeBaseService {
                 .providerName(provider != null ? provider.getName() : null)
                 .chunkSize(dto.getChunkSize())
                 .chunkOverlap(dto.getChunkOverlap())
+                .vectorStorageMode(dto.getVectorStorageMode())
                 .createdAt(now)
                 .updatedAt(now)
                 .build();
@@ -77,10 +79,17 @@ public class KnowledgeBaseService {
                 .providerName(provider != null ? provider.getName() : null)
                 .chunkSize(dto.getChunkSize())
                 .chunkOverlap(dto.getChunkOverlap())
+                .vectorStorageMode(dto.getVectorStorageMode())
                 .updatedAt(System.currentTimeMillis())
                 .build();
         
         knowledgeBaseMapper.updateById(knowledgeBase);
+        
+        // 存储方式变更后丢弃常驻索引，下次访问按新方式从段文件重新加载
+        if (dto.getVectorStorageMode() != null 
+                && !dto.getVectorStorageMode().equals(existing.getVectorStorageMode())) {
+            customVectorStoreService.evictIndex(id);
+        }
         log.info("更新知识库成功: {}, 提供商: {}", id, 
                 provider != null ? provider.getName() : "未知");
         
@@ -0,0 +1,161 @@
+package com.ai.assistant.service;
+
+import com.ai.assistant.config.HttpClientConfig;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.boot.web.client.RestClientCustomizer;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.ReactorNettyClientRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 访问模型提供商的共享 HTTP 客户端
+ *
+ * 所有聊天、嵌入和模型列表请求共用一个 Reactor Netty 连接池：按目标主机分池、空闲连接保活复用，
+ * HTTPS 上优先协商 HTTP/2。同步的 RestClient/RestTemplate 和流式的 WebClient 都建立在同一个连接池上，
+ * Spring AI 自动配置的客户端也通过 customizer 接入。
+ * OpenAiApi 按（baseUrl, apiKey）缓存，同一提供商的各模型复用同一个客户端。
+ * 提供商返回的 4xx 错误以 {@link HttpClientErrorException} 抛出，保留状态码和响应头（如限流时的 Retry-After）。
+ */
+@Slf4j
+@Component
+public class LlmHttpClients implements RestClientCustomizer, WebClientCustomizer {
+
+    private final ConnectionProvider connectionProvider;
+    private final HttpClient httpClient;
+    private final ReactorNettyClientRequestFactory requestFactory;
+    private final RestTemplate restTemplate;
+
+    private final Map<String, OpenAiApi> openAiApis = new ConcurrentHashMap<>();
+
+    /**
+     * OpenAiApi 同步请求的错误处理
+     *
+     * Spring AI 默认的处理器把错误响应转成只含"状态码 - 响应体"消息的异常，丢掉了响应头。
+     * 这里 5xx 仍按可重试异常抛出，由 Spring AI 的重试模板处理；4xx 抛出带状态码和响应头的
+     * HttpClientErrorException，消息格式与默认处理器一致
+     */
+    private static final ResponseErrorHandler PROVIDER_ERROR_HANDLER = new ResponseErrorHandler() {
+        @Override
+        public boolean hasError(ClientHttpResponse response) throws IOException {
+            return response.getStatusCode().isError();
+        }
+
+        @Override
+        public void handleError(ClientHttpResponse response) throws IOException {
+            HttpStatusCode status = response.getStatusCode();
+            byte[] body = response.getBody().readAllBytes();
+            String message = status.value() + " - " + new String(body, StandardCharsets.UTF_8);
+            if (status.is4xxClientError()) {
+                throw HttpClientErrorException.create(message, status, response.getStatusText(),
+                        response.getHeaders(), body, StandardCharsets.UTF_8);
+            }
+            throw new TransientAiException(message);
+        }
+    };
+
+    public LlmHttpClients(HttpClientConfig config) {
+        Duration connectTimeout = Duration.ofSeconds(config.getConnectTimeoutSeconds());
+        Duration responseTimeout = Duration.ofSeconds(config.getResponseTimeoutSeconds());
+
+        this.connectionProvider = ConnectionProvider.builder("llm-http")
+                .maxConnections(config.getMaxConnectionsPerHost())
+                .pendingAcquireTimeout(Duration.ofSeconds(config.getPendingAcquireTimeoutSeconds()))
+                .maxIdleTime(Duration.ofSeconds(config.getKeepAliveSeconds()))
+                .maxLifeTime(Duration.ofSeconds(config.getMaxLifeSeconds()))
+                .evictInBackground(Duration.ofSeconds(30))
+                .build();
+
+        HttpClient client = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(responseTimeout)
+                .keepAlive(true)
+                .compress(true);
+        if (config.isHttp2Enabled()) {
+            // 明文 http 地址仍走 HTTP/1.1
+            client = client.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        this.httpClient = client;
+
+        this.requestFactory = new ReactorNettyClientRequestFactory(httpClient);
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setExchangeTimeout(responseTimeout);
+        requestFactory.setReadTimeout(responseTimeout);
+        this.restTemplate = new RestTemplate(requestFactory);
+
+        log.info("共享 HTTP 连接池已创建，每主机最大连接数: {}，保活: {}s，HTTP/2: {}",
+                config.getMaxConnectionsPerHost(), config.getKeepAliveSeconds(), config.isHttp2Enabled());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connectionProvider.dispose();
+    }
+
+    @Override
+    public void customize(RestClient.Builder restClientBuilder) {
+        restClientBuilder.requestFactory(requestFactory);
+    }
+
+    @Override
+    public void customize(WebClient.Builder webClientBuilder) {
+        webClientBuilder.clientConnector(new ReactorClientHttpConnector(httpClient));
+    }
+
+    /**
+     * 基于共享连接池的 RestClient 构建器，每次返回新实例，可自由设置 baseUrl 和请求头
+     */
+    public RestClient.Builder restClientBuilder() {
+        RestClient.Builder builder = RestClient.builder();
+        customize(builder);
+        return builder;
+    }
+
+    /**
+     * 基于共享连接池的 WebClient 构建器，每次返回新实例
+     */
+    public WebClient.Builder webClientBuilder() {
+        WebClient.Builder builder = WebClient.builder();
+        customize(builder);
+        return builder;
+    }
+
+    public RestTemplate restTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * 取提供商的 OpenAiApi 客户端，相同地址和密钥复用同一实例
+     */
+    public OpenAiApi openAiApi(String baseUrl, String apiKey) {
+        return openAiApis.computeIfAbsent(baseUrl + '\u0000' + apiKey,
+                key -> new OpenAiApi(baseUrl, apiKey, restClientBuilder(), webClientBuilder(), PROVIDER_ERROR_HANDLER));
+    }
+
+    /**
+     * 提供商配置变更后丢弃已缓存的客户端
+     */
+    public void evictOpenAiApis() {
+        openAiApis.clear();
+    }
+}
@@ -14,7 +14,6 @@ import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -26,7 +25,8 @@ public class ModelProviderService {
     
     private final ModelProviderMapper modelProviderMapper;
     private final ObjectMapper objectMapper;
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final EmbeddingService embeddingService;
+    private final LlmHttpClients llmHttpClients;
     
     public List<ModelProviderDTO> getAllProviders() {
         return modelProviderMapper.selectList(null)
@@ -77,6 +77,7 @@ public class ModelProviderService {
         }
         
         modelProviderMapper.insert(provider);
+        embeddingService.invalidateProviders();
         return toDTO(provider);
     }
     
@@ -133,11 +134,13 @@ public class ModelProviderService {
         }
         
         modelProviderMapper.updateById(provider);
+        embeddingService.invalidateProviders();
         return toDTO(provider);
     }
     
     public void deleteProvider(String id) {
         modelProviderMapper.deleteById(id);
+        embeddingService.invalidateProviders();
     }
     
     public Map<String, Object> testConnection(String id) {
@@ -194,7 +197,7 @@ public class ModelProviderService {
         
         try {
             // 创建 OpenAI API 客户端
-            OpenAiApi openAiApi = new OpenAiApi(provider.getBaseUrl(), provider.getApiKey());
+            OpenAiApi openAiApi = llmHttpClients.openAiApi(provider.getBaseUrl(), provider.getApiKey());
             
             // 创建聊天选项
             OpenAiChatOptions options = OpenAiChatOptions.builder()
@@ -251,7 +254,7 @@ public class ModelProviderService {
             HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
             
             long startTime = System.currentTimeMillis();
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = llmHttpClients.restTemplate().exchange(
                     url, HttpMethod.POST, entity, String.class);
             long latency = System.currentTimeMillis() - startTime;
             
@@ -326,7 +329,7 @@ public class ModelProviderService {
             HttpEntity<String> entity = new HttpEntity<>(headers);
             
             long startTime = System.currentTimeMillis();
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = llmHttpClients.restTemplate().exchange(
                     url, HttpMethod.GET, entity, String.class);
             long latency = System.currentTimeMillis() - startTime;
             
@@ -388,6 +391,7 @@ public class ModelProviderService {
             List<ModelInfo> models = fetchAvailableModelsWithInfo(baseUrl, provider.getApiKey());
             provider.setModelsJson(objectMapper.writeValueAsString(models));
             modelProviderMapper.updateById(provider);
+            embeddingService.invalidateProviders();
         } catch (Exception e) {
             log.error("Failed to refresh models for provider: {}", id, e);
             throw new RuntimeException("获取模型列表失败: " + e.getMessage());
@@ -411,7 +415,7 @@ public class ModelProviderService {
             
             HttpEntity<String> entity = new HttpEntity<>(headers);
             
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = llmHttpClients.restTemplate().exchange(
                     url, HttpMethod.GET, entity, String.class);
             
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
@@ -0,0 +1,286 @@
+package com.ai.assistant.service;
+
+import com.ai.assistant.config.EmbeddingConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 检索查询的嵌入向量缓存
+ *
+ * 以（规范化后的查询文本, 嵌入模型）为键，容量有界、按最近使用淘汰，条目超过有效期后失效。
+ * 同一查询并发未命中时只请求一次嵌入接口，其余调用等待同一结果。
+ * 关闭时把未过期的条目写入文件，启动时加载，重启后常见问题仍可命中。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QueryEmbeddingCache {
+
+    private static final int FILE_MAGIC = 0x51454D42;
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * writeUTF 的编码长度上限为 65535 字节，超长查询不持久化
+     */
+    private static final int MAX_PERSISTED_KEY_CHARS = 20000;
+
+    private final EmbeddingConfig config;
+
+    private static final class Entry {
+        private final float[] embedding;
+        private final long expiresAt;
+
+        Entry(float[] embedding, long expiresAt) {
+            this.embedding = embedding;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * 按访问顺序排列的缓存条目，所有访问在自身上同步
+     */
+    private LinkedHashMap<String, Entry> entries;
+
+    /**
+     * 正在请求嵌入接口的查询
+     */
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存版本，每次清空时递增；请求嵌入接口期间版本变化则不缓存结果
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int maxEntries = Math.max(config.getQueryCache().getMaxEntries(), 1);
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        load();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        save();
+    }
+
+    /**
+     * 取查询的嵌入向量，未命中或已过期时调用 loader 生成并缓存
+     */
+    public float[] get(String text, String modelId, Supplier<float[]> loader) {
+        EmbeddingConfig.QueryCache cacheConfig = config.getQueryCache();
+        if (!cacheConfig.isEnabled()) {
+            return loader.get();
+        }
+
+        String key = key(text, modelId);
+        float[] cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.clone();
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<float[]> created = new CompletableFuture<>();
+        CompletableFuture<float[]> pending = inFlight.putIfAbsent(key, created);
+        if (pending != null) {
+            try {
+                return pending.join().clone();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        long loadGeneration = generation.get();
+        try {
+            float[] embedding = loader.get();
+            long expiresAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(cacheConfig.getTtlMinutes());
+            synchronized (entries) {
+                // 请求期间缓存被清空（如提供商配置变更），结果可能来自旧提供商，只返回不缓存
+                if (generation.get() == loadGeneration) {
+                    entries.put(key, new Entry(embedding.clone(), expiresAt));
+                }
+            }
+            created.complete(embedding);
+            return embedding;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * 命中统计
+     */
+    public Map<String, Object> stats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        return stats;
+    }
+
+    /**
+     * 清空缓存（例如嵌入模型的提供商配置变更后）；进行中的请求完成后不写入缓存，之后的调用不再等待它们
+     */
+    public void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+        inFlight.clear();
+    }
+
+    private float[] lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                return null;
+            }
+            return entry.embedding;
+        }
+    }
+
+    /**
+     * 缓存键：模型 + 规范化文本（全角半角统一、首尾空白去除、连续空白合并）
+     */
+    static String key(String text, String modelId) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).trim().replaceAll("\\s+", " ");
+        return (modelId != null ? modelId : "default") + '\u0000' + normalized;
+    }
+
+    private Path persistFile() {
+        String path = config.getQueryCache().getPersistPath();
+        return path != null && !path.isBlank() ? Paths.get(path) : null;
+    }
+
+    private void load() {
+        Path file = persistFile();
+        if (!config.getQueryCache().isEnabled() || file == null || !Files.exists(file)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                log.warn("查询向量缓存文件格式不符，忽略: {}", file);
+                return;
+            }
+            int count = in.readInt();
+            synchronized (entries) {
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    long expiresAt = in.readLong();
+                    float[] embedding = new float[in.readInt()];
+                    for (int d = 0; d < embedding.length; d++) {
+                        embedding[d] = in.readFloat();
+                    }
+                    if (expiresAt > now) {
+                        entries.put(key, new Entry(embedding, expiresAt));
+                        loaded++;
+                    }
+                }
+            }
+            log.info("加载查询向量缓存 {} 条", loaded);
+        } catch (EOFException e) {
+            log.warn("查询向量缓存文件不完整，已加载 {} 条", loaded);
+        } catch (IOException e) {
+            log.warn("加载查询向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private void save() {
+        Path file = persistFile();
+        if (!config.getQueryCache().isEnabled() || file == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> live = new ArrayList<>();
+        synchronized (entries) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().expiresAt > now && entry.getKey().length() <= MAX_PERSISTED_KEY_CHARS) {
+                    live.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(live.size());
+                // 按访问顺序写出，加载后最近使用的条目仍排在末尾
+                for (Map.Entry<String, Entry> entry : live) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().expiresAt);
+                    float[] embedding = entry.getValue().embedding;
+                    out.writeInt(embedding.length);
+                    for (float v : embedding) {
+                        out.writeFloat(v);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("保存查询向量缓存 {} 条，命中统计: {}", live.size(), stats());
+        } catch (IOException e) {
+            log.warn("保存查询向量缓存失败: {}", e.getMessage());
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package com.ai.assistant.service;
 
+import com.ai.assistant.config.CustomVectorStoreConfig;
 import com.ai.assistant.dto.RetrievedChunk;
+import com.ai.assistant.vectorstore.SearchFilter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.stereotype.Service;
 
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -16,21 +22,57 @@ public class RAGService {
     
     private final CustomVectorStoreService customVectorStoreService;
     private final EmbeddingService embeddingService;
+    private final CustomVectorStoreConfig vectorStoreConfig;
     
     /**
      * 检索相关文档
      */
     public List<RetrievedChunk> retrieve(String query, List<String> knowledgeBaseIds, int topK, String embeddingModel) {
-        log.info("开始检索，查询: {}, 知识库数量: {}, topK: {}, 模型: {}", 
-                query, knowledgeBaseIds.size(), topK, embeddingModel);
+        return retrieve(query, knowledgeBaseIds, topK, embeddingModel, false);
+    }
+    
+    /**
+     * 检索相关文档
+     * 
+     * @param exactSearch 为 true 时使用精确检索代替HNSW近似检索，用于对比召回质量
+     */
+    public List<RetrievedChunk> retrieve(String query, List<String> knowledgeBaseIds, int topK, 
+                                         String embeddingModel, boolean exactSearch) {
+        return retrieve(query, knowledgeBaseIds, topK, embeddingModel, exactSearch, null);
+    }
+    
+    /**
+     * 按元数据过滤后检索相关文档
+     * 
+     * @param filter 文档ID、标签、分类、创建时间等过滤条件，在打分之前生效；为 null 时不过滤
+     */
+    public List<RetrievedChunk> retrieve(String query, List<String> knowledgeBaseIds, int topK, 
+                                         String embeddingModel, boolean exactSearch, SearchFilter filter) {
+        log.info("开始检索，查询: {}, 知识库数量: {}, topK: {}, 模型: {}, 精确检索: {}, 过滤: {}", 
+                query, knowledgeBaseIds.size(), topK, embeddingModel, exactSearch, filter);
         
         try {
             // 生成查询的embedding向量
             float[] queryEmbedding = embeddingService.embed(query, embeddingModel);
             
-            // 使用自定义向量存储进行相似度搜索
-            List<CustomVectorStoreService.SearchResult> results = 
-                customVectorStoreService.similaritySearch(query, queryEmbedding, knowledgeBaseIds, topK);
+            List<CustomVectorStoreService.SearchResult> results;
+            CustomVectorStoreConfig.Lexical lexical = vectorStoreConfig.getLexical();
+            if (lexical.isEnabled()) {
+                // 混合检索：向量与BM25关键词两路各取候选，按倒数排名融合，弥补向量检索对型号、错误码等精确词的遗漏
+                int candidates = topK * Math.max(lexical.getCandidateMultiplier(), 1);
+                List<CustomVectorStoreService.SearchResult> vectorResults = 
+                    customVectorStoreService.similaritySearch(query, queryEmbedding, knowledgeBaseIds, candidates, 
+                            exactSearch, filter);
+                List<CustomVectorStoreService.SearchResult> lexicalResults = 
+                    customVectorStoreService.lexicalSearch(query, queryEmbedding, knowledgeBaseIds, candidates, filter);
+                results = fuse(vectorResults, lexicalResults, topK, lexical.getRrfK());
+                log.info("混合检索：向量候选 {} 个，关键词候选 {} 个，融合后 {} 个", 
+                        vectorResults.size(), lexicalResults.size(), results.size());
+            } else {
+                // 使用自定义向量存储进行相似度搜索
+                results = customVectorStoreService.similaritySearch(query, queryEmbedding, knowledgeBaseIds, topK, 
+                        exactSearch, filter);
+            }
             
             // 转换为 RetrievedChunk
             List<RetrievedChunk> chunks = results.stream()
@@ -53,6 +95,29 @@ public class RAGService {
         }
     }
     
+    /**
+     * 倒数排名融合（RRF）：每路结果按名次贡献 1/(k+名次)，按总分取topK；
+     * 只依赖名次，不需要把余弦相似度和BM25得分归一到同一量纲。结果的相似度沿用原值
+     */
+    private List<CustomVectorStoreService.SearchResult> fuse(List<CustomVectorStoreService.SearchResult> vectorResults,
+                                                            List<CustomVectorStoreService.SearchResult> lexicalResults,
+                                                            int topK, int k) {
+        Map<String, CustomVectorStoreService.SearchResult> byId = new LinkedHashMap<>();
+        Map<String, Double> fused = new HashMap<>();
+        for (List<CustomVectorStoreService.SearchResult> ranked : List.of(vectorResults, lexicalResults)) {
+            for (int rank = 0; rank < ranked.size(); rank++) {
+                CustomVectorStoreService.SearchResult result = ranked.get(rank);
+                byId.putIfAbsent(result.getId(), result);
+                fused.merge(result.getId(), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+        return byId.values().stream()
+                .sorted(Comparator.comparingDouble(
+                        (CustomVectorStoreService.SearchResult result) -> fused.get(result.getId())).reversed())
+                .limit(topK)
+                .collect(Collectors.toList());
+    }
+    
     /**
      * 构建带上下文的提示词
      */
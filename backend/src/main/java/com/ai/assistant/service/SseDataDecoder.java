@@ -0,0 +1,103 @@
+package com.ai.assistant.service;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量解析 Server-Sent Events 响应体中的 data 字段
+ *
+ * 按到达的字节块逐行切分，跨块的半行和被截断的多字节 UTF-8 字符留在行缓冲中等下一块；
+ * 同一事件的多行 data 以换行连接，遇到空行时产出一个事件，其余字段（event、id、注释等）忽略。
+ * 每次订阅使用独立的解析状态，读取后即释放字节块。
+ */
+final class SseDataDecoder {
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+    private final StringBuilder data = new StringBuilder();
+    private boolean hasData;
+
+    private SseDataDecoder() {
+    }
+
+    /**
+     * 把响应字节流转换为事件的 data 内容流
+     */
+    static Flux<String> decode(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            SseDataDecoder decoder = new SseDataDecoder();
+            return body.concatMapIterable(decoder::feed)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(decoder.finish())));
+        });
+    }
+
+    private List<String> feed(DataBuffer buffer) {
+        List<String> events = new ArrayList<>(2);
+        try {
+            byte[] bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            int start = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\n') {
+                    line.write(bytes, start, i - start);
+                    processLine(events);
+                    start = i + 1;
+                }
+            }
+            line.write(bytes, start, bytes.length - start);
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+        return events;
+    }
+
+    /**
+     * 响应结束时补发最后一个未以空行结尾的事件
+     */
+    private List<String> finish() {
+        List<String> events = new ArrayList<>(1);
+        if (line.size() > 0) {
+            processLine(events);
+        }
+        dispatch(events);
+        return events;
+    }
+
+    private void processLine(List<String> events) {
+        String text = line.toString(StandardCharsets.UTF_8);
+        line.reset();
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+
+        if (text.isEmpty()) {
+            dispatch(events);
+            return;
+        }
+        if (!text.startsWith("data:")) {
+            return;
+        }
+        String value = text.substring(5);
+        if (value.startsWith(" ")) {
+            value = value.substring(1);
+        }
+        if (hasData) {
+            data.append('\n');
+        }
+        data.append(value);
+        hasData = true;
+    }
+
+    private void dispatch(List<String> events) {
+        if (hasData) {
+            events.add(data.toString());
+            data.setLength(0);
+            hasData = false;
+        }
+    }
+}
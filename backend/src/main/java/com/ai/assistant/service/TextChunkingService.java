@@ -2,6 +2,9 @@ package com.ai.assistant.service;
 
 import com.ai.assistant.entity.DocumentChunk;
 import com.ai.assistant.mapper.DocumentChunkMapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,7 +12,9 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,6 +24,7 @@ import java.util.regex.Pattern;
 public class TextChunkingService {
     
     private final DocumentChunkMapper documentChunkMapper;
+    private final ObjectMapper objectMapper;
     
     @Value("${document.chunking.strategy:smart}")
     private String chunkingStrategy;
@@ -40,17 +46,29 @@ public class TextChunkingService {
         log.info("开始文本分块，策略: {}, 文本长度: {}, 目标块大小: {}, 重叠: {}", 
                 chunkingStrategy, text.length(), chunkSize, overlap);
         
-        List<TextChunk> chunks;
+        List<TextChunk> chunks = split(text, chunkSize, overlap);
+        
+        log.info("文本分块完成，共 {} 块", chunks.size());
+        return chunks;
+    }
+    
+    /**
+     * 创建按页增量切块器，每满 windowPages 页切分一次
+     */
+    public PageChunker pageChunker(int chunkSize, int overlap, int windowPages) {
+        log.info("开始按页分块，策略: {}, 每窗口 {} 页, 目标块大小: {}, 重叠: {}", 
+                chunkingStrategy, windowPages, chunkSize, overlap);
+        return new PageChunker(chunkSize, overlap, Math.max(windowPages, 1));
+    }
+    
+    private List<TextChunk> split(String text, int chunkSize, int overlap) {
         if ("paragraph".equalsIgnoreCase(chunkingStrategy)) {
-            chunks = splitByParagraphsOnly(text);
+            return splitByParagraphsOnly(text);
         } else if ("smart".equalsIgnoreCase(chunkingStrategy)) {
-            chunks = splitByParagraphs(text, chunkSize, overlap);
+            return splitByParagraphs(text, chunkSize, overlap);
         } else {
-            chunks = splitByFixedSize(text, chunkSize, overlap);
+            return splitByFixedSize(text, chunkSize, overlap);
         }
-        
-        log.info("文本分块完成，共 {} 块", chunks.size());
-        return chunks;
     }
     
     /**
@@ -60,15 +78,15 @@ public class TextChunkingService {
         List<TextChunk> chunks = new ArrayList<>();
         
         // 按段落分割
-        List<String> paragraphs = splitIntoParagraphs(text);
+        List<Span> paragraphs = splitIntoParagraphs(text);
         log.info("识别到 {} 个段落，每个段落独立成块", paragraphs.size());
         
         // 每个段落独立成块
         for (int i = 0; i < paragraphs.size(); i++) {
-            String content = paragraphs.get(i).trim();
-            if (!content.isEmpty()) {
-                chunks.add(new TextChunk(i, content));
-                log.debug("段落 {} 长度: {} 字符", i + 1, content.length());
+            Span paragraph = paragraphs.get(i);
+            if (!paragraph.text.isEmpty()) {
+                chunks.add(new TextChunk(i, paragraph.text, paragraph.start, paragraph.end));
+                log.debug("段落 {} 长度: {} 字符", i + 1, paragraph.text.length());
             }
         }
         
@@ -83,17 +101,17 @@ public class TextChunkingService {
         List<TextChunk> chunks = new ArrayList<>();
         
         // 第一步：按段落分割
-        List<String> paragraphs = splitIntoParagraphs(text);
+        List<Span> paragraphs = splitIntoParagraphs(text);
         log.info("识别到 {} 个段落", paragraphs.size());
         
         // 第二步：智能组合段落成块
-        List<String> smartChunks = createSmartChunks(paragraphs, chunkSize, overlap);
+        List<Span> smartChunks = createSmartChunks(text, paragraphs, chunkSize, overlap);
         
         // 第三步：创建TextChunk对象
         for (int i = 0; i < smartChunks.size(); i++) {
-            String content = smartChunks.get(i).trim();
-            if (!content.isEmpty()) {
-                chunks.add(new TextChunk(i, content));
+            Span chunk = smartChunks.get(i);
+            if (!chunk.text.isEmpty()) {
+                chunks.add(new TextChunk(i, chunk.text, chunk.start, chunk.end));
             }
         }
         
@@ -136,9 +154,9 @@ public class TextChunkingService {
                 }
             }
             
-            String content = text.substring(start, end).trim();
-            if (!content.isEmpty()) {
-                chunks.add(new TextChunk(index++, content));
+            Span content = trimmed(text, start, end);
+            if (content != null) {
+                chunks.add(new TextChunk(index++, content.text, content.start, content.end));
             }
             
             int nextStart = end - overlap;
@@ -155,64 +173,54 @@ public class TextChunkingService {
     /**
      * 将文本按段落分割
      */
-    private List<String> splitIntoParagraphs(String text) {
-        List<String> paragraphs = new ArrayList<>();
+    private List<Span> splitIntoParagraphs(String text) {
+        List<Span> paragraphs = new ArrayList<>();
         
         // 按连续换行符分割段落
-        String[] parts = PARAGRAPH_PATTERN.split(text);
-        
-        for (String part : parts) {
-            String trimmed = part.trim();
-            if (!trimmed.isEmpty()) {
-                paragraphs.add(trimmed);
-            }
+        Matcher matcher = PARAGRAPH_PATTERN.matcher(text);
+        int from = 0;
+        while (matcher.find()) {
+            addTrimmed(paragraphs, text, from, matcher.start());
+            from = matcher.end();
         }
+        addTrimmed(paragraphs, text, from, text.length());
         
         // 如果没有明显的段落分隔，尝试按单个换行符分割
         if (paragraphs.size() <= 1 && text.contains("\n")) {
             paragraphs.clear();
-            String[] lines = text.split("\n");
-            for (String line : lines) {
-                String trimmed = line.trim();
-                if (!trimmed.isEmpty()) {
-                    paragraphs.add(trimmed);
-                }
+            from = 0;
+            for (int newline = text.indexOf('\n'); newline >= 0; newline = text.indexOf('\n', from)) {
+                addTrimmed(paragraphs, text, from, newline);
+                from = newline + 1;
             }
+            addTrimmed(paragraphs, text, from, text.length());
         }
         
         // 如果还是只有一个段落，按句子分割
         if (paragraphs.size() <= 1) {
-            paragraphs = splitIntoSentences(text);
+            paragraphs = splitIntoSentences(text, 0, text.length());
         }
         
         return paragraphs;
     }
     
     /**
-     * 将文本按句子分割
+     * 将原文 [from, to) 范围内的文本按句子分割
      */
-    private List<String> splitIntoSentences(String text) {
-        List<String> sentences = new ArrayList<>();
-        Matcher matcher = SENTENCE_END_PATTERN.matcher(text);
+    private List<Span> splitIntoSentences(String text, int from, int to) {
+        List<Span> sentences = new ArrayList<>();
+        Matcher matcher = SENTENCE_END_PATTERN.matcher(text).region(from, to);
         
-        int lastEnd = 0;
+        int lastEnd = from;
         while (matcher.find()) {
-            String sentence = text.substring(lastEnd, matcher.end()).trim();
-            if (!sentence.isEmpty()) {
-                sentences.add(sentence);
-            }
+            addTrimmed(sentences, text, lastEnd, matcher.end());
             lastEnd = matcher.end();
         }
         
-        // 添加最后一个句子（如果有）
-        if (lastEnd < text.length()) {
-            String lastSentence = text.substring(lastEnd).trim();
-            if (!lastSentence.isEmpty()) {
-                sentences.add(lastSentence);
-            }
-        }
+        // 添加最后一个句子（如果有）；全为空白时没有句子
+        addTrimmed(sentences, text, lastEnd, to);
         
-        return sentences.isEmpty() ? List.of(text) : sentences;
+        return sentences;
     }
     
     /**
@@ -222,58 +230,81 @@ public class TextChunkingService {
      * 2. 大段落单独成块，如果超过目标大小则按句子切分
      * 3. 保持段落完整性，避免在段落中间切断
      */
-    private List<String> createSmartChunks(List<String> paragraphs, int targetSize, int overlap) {
-        List<String> chunks = new ArrayList<>();
-        StringBuilder currentChunk = new StringBuilder();
+    private List<Span> createSmartChunks(String text, List<Span> paragraphs, int targetSize, int overlap) {
+        List<Span> chunks = new ArrayList<>();
+        ChunkBuilder currentChunk = new ChunkBuilder();
         
         for (int i = 0; i < paragraphs.size(); i++) {
-            String paragraph = paragraphs.get(i);
-            int paragraphLength = paragraph.length();
+            Span paragraph = paragraphs.get(i);
+            int paragraphLength = paragraph.text.length();
             
             // 情况1：段落本身就很大（超过目标大小的1.5倍）
             if (paragraphLength > targetSize * 1.5) {
                 // 先保存当前累积的块
                 if (currentChunk.length() > 0) {
-                    chunks.add(currentChunk.toString());
-                    currentChunk = new StringBuilder();
+                    chunks.add(currentChunk.build());
+                    currentChunk = new ChunkBuilder();
                 }
                 
                 // 大段落按句子切分
-                List<String> sentences = splitIntoSentences(paragraph);
-                chunks.addAll(createSmartChunks(sentences, targetSize, overlap));
+                List<Span> sentences = splitIntoSentences(text, paragraph.start, paragraph.end);
+                chunks.addAll(createSmartChunks(text, sentences, targetSize, overlap));
                 continue;
             }
             
             // 情况2：添加这个段落会超过目标大小
             if (currentChunk.length() > 0 && currentChunk.length() + paragraphLength > targetSize) {
                 // 保存当前块
-                chunks.add(currentChunk.toString());
+                chunks.add(currentChunk.build());
                 
                 // 创建新块，可能包含重叠内容
                 if (overlap > 0 && currentChunk.length() > overlap) {
                     String overlapText = getLastNChars(currentChunk.toString(), overlap);
-                    currentChunk = new StringBuilder(overlapText);
-                    currentChunk.append("\n\n");
+                    currentChunk = currentChunk.tail(currentChunk.length() - overlapText.length());
+                    currentChunk.appendSeparator();
                 } else {
-                    currentChunk = new StringBuilder();
+                    currentChunk = new ChunkBuilder();
                 }
             }
             
             // 情况3：添加段落到当前块
             if (currentChunk.length() > 0) {
-                currentChunk.append("\n\n");
+                currentChunk.appendSeparator();
             }
             currentChunk.append(paragraph);
         }
         
         // 添加最后一个块
         if (currentChunk.length() > 0) {
-            chunks.add(currentChunk.toString());
+            chunks.add(currentChunk.build());
         }
         
         return chunks;
     }
     
+    /**
+     * 把原文 [start, end) 去掉首尾空白后加入列表，全为空白时忽略
+     */
+    private static void addTrimmed(List<Span> spans, String text, int start, int end) {
+        Span span = trimmed(text, start, end);
+        if (span != null) {
+            spans.add(span);
+        }
+    }
+    
+    /**
+     * 原文 [start, end) 去掉首尾空白（与 String.trim 相同）后的片段，全为空白时返回 null
+     */
+    private static Span trimmed(String text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return start < end ? new Span(text.substring(start, end), start, end) : null;
+    }
+    
     /**
      * 获取字符串的最后N个字符（尽量在句子边界处）
      */
@@ -324,6 +355,70 @@ public class TextChunkingService {
         return documentChunks;
     }
     
+    /**
+     * 生成待保存的文档块，预先分配主键并以其作为向量ID，嵌入完成后与向量一起写入
+     */
+    public List<DocumentChunk> prepareChunks(String documentId, List<TextChunk> textChunks) {
+        List<DocumentChunk> documentChunks = new ArrayList<>(textChunks.size());
+        long now = System.currentTimeMillis();
+        
+        for (TextChunk textChunk : textChunks) {
+            String id = IdWorker.get32UUID();
+            String metadata = textChunk.getPageStart() != null ? pageMetadata(textChunk) : null;
+            documentChunks.add(DocumentChunk.builder()
+                    .id(id)
+                    .documentId(documentId)
+                    .content(textChunk.getContent())
+                    .chunkIndex(textChunk.getIndex())
+                    .vectorId(id)
+                    .metadata(metadata)
+                    .createdAt(now)
+                    .build());
+        }
+        return documentChunks;
+    }
+    
+    private String pageMetadata(TextChunk textChunk) {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("pageStart", textChunk.getPageStart());
+        metadata.put("pageEnd", textChunk.getPageEnd());
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (Exception e) {
+            log.error("转换文档块元数据为 JSON 失败", e);
+            return null;
+        }
+    }
+    
+    /**
+     * 批量写入 prepareChunks 生成的文档块
+     */
+    @Transactional
+    public void insertChunks(String documentId, List<DocumentChunk> documentChunks) {
+        for (DocumentChunk chunk : documentChunks) {
+            documentChunkMapper.insert(chunk);
+        }
+        log.info("保存文档块成功，文档ID: {}, 块数: {}", documentId, documentChunks.size());
+    }
+    
+    /**
+     * 删除文档的全部块，返回被删除块的向量ID
+     */
+    @Transactional
+    public List<String> deleteChunks(String documentId) {
+        LambdaQueryWrapper<DocumentChunk> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(DocumentChunk::getDocumentId, documentId)
+                .select(DocumentChunk::getId, DocumentChunk::getVectorId);
+        List<String> vectorIds = new ArrayList<>();
+        for (DocumentChunk chunk : documentChunkMapper.selectList(wrapper)) {
+            if (chunk.getVectorId() != null && !chunk.getVectorId().isEmpty()) {
+                vectorIds.add(chunk.getVectorId());
+            }
+        }
+        documentChunkMapper.delete(new LambdaQueryWrapper<DocumentChunk>().eq(DocumentChunk::getDocumentId, documentId));
+        return vectorIds;
+    }
+    
     /**
      * 更新文档块的向量ID
      */
@@ -335,16 +430,215 @@ public class TextChunkingService {
         documentChunkMapper.updateById(chunk);
     }
     
+    /**
+     * 按页增量切块器
+     * 
+     * 页面文本依次追加到窗口（与整篇提取时的拼接方式相同），每满一个窗口的页数对窗口文本切块一次：
+     * 除最后一块外，各块按其在窗口中的原文偏移标注起止页后输出；最后一块可能在下一页继续，
+     * 窗口从它的起点（含与上一块的重叠部分）截断，与后续页面一起切分。窗口只保留尚未输出的文本。
+     */
+    public class PageChunker {
+        private final int chunkSize;
+        private final int overlap;
+        private final int windowPages;
+        private final StringBuilder window = new StringBuilder();
+        // 窗口内各页文本的起始偏移和页码
+        private final List<int[]> pageOffsets = new ArrayList<>();
+        private final List<TextChunk> chunks = new ArrayList<>();
+        private int pagesInWindow;
+        // 已从窗口移出的文本长度，窗口偏移加上它即为全文偏移
+        private int windowStart;
+        
+        private PageChunker(int chunkSize, int overlap, int windowPages) {
+            this.chunkSize = chunkSize;
+            this.overlap = overlap;
+            this.windowPages = windowPages;
+        }
+        
+        public void addPage(int pageNumber, String text) {
+            if (text != null && !text.isBlank()) {
+                pageOffsets.add(new int[]{window.length(), pageNumber});
+                window.append(text);
+            }
+            if (++pagesInWindow >= windowPages) {
+                drain(false);
+                pagesInWindow = 0;
+            }
+        }
+        
+        /**
+         * 切分剩余文本，返回全部块
+         */
+        public List<TextChunk> finish() {
+            drain(true);
+            log.info("按页分块完成，共 {} 块", chunks.size());
+            return chunks;
+        }
+        
+        private void drain(boolean last) {
+            if (window.length() == 0) {
+                return;
+            }
+            List<TextChunk> windowChunks = split(window.toString(), chunkSize, overlap);
+            int emitCount = last ? windowChunks.size() : windowChunks.size() - 1;
+            for (int i = 0; i < emitCount; i++) {
+                TextChunk chunk = windowChunks.get(i);
+                chunks.add(new TextChunk(chunks.size(), chunk.getContent(),
+                        windowStart + chunk.getSourceStart(), windowStart + chunk.getSourceEnd(),
+                        pageAt(chunk.getSourceStart()), pageAt(chunk.getSourceEnd() - 1)));
+            }
+            
+            if (last || windowChunks.isEmpty()) {
+                windowStart += window.length();
+                window.setLength(0);
+                pageOffsets.clear();
+                return;
+            }
+            int carryFrom = windowChunks.get(emitCount).getSourceStart();
+            if (carryFrom <= 0) {
+                return;
+            }
+            List<int[]> remaining = new ArrayList<>();
+            remaining.add(new int[]{0, pageAt(carryFrom)});
+            for (int[] offset : pageOffsets) {
+                if (offset[0] > carryFrom) {
+                    remaining.add(new int[]{offset[0] - carryFrom, offset[1]});
+                }
+            }
+            pageOffsets.clear();
+            pageOffsets.addAll(remaining);
+            window.delete(0, carryFrom);
+            windowStart += carryFrom;
+        }
+        
+        private int pageAt(int offset) {
+            int page = pageOffsets.get(0)[1];
+            for (int[] pageOffset : pageOffsets) {
+                if (pageOffset[0] > offset) {
+                    break;
+                }
+                page = pageOffset[1];
+            }
+            return page;
+        }
+    }
+    
+    /**
+     * 原文中的一段文本，start、end 为其在原文中的 [起, 止) 偏移；由多段拼接的块覆盖从第一段起点到最后一段终点的范围
+     */
+    private static final class Span {
+        private final String text;
+        private final int start;
+        private final int end;
+        
+        Span(String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+    }
+    
+    /**
+     * 拼接段落或句子组成块，记录各片段在块文本中的位置和原文偏移，用于换算块在原文中的范围
+     */
+    private static final class ChunkBuilder {
+        private final StringBuilder text = new StringBuilder();
+        // 各片段在块文本中的起点、原文起点和长度
+        private final List<int[]> pieces = new ArrayList<>();
+        
+        void append(Span span) {
+            appendPiece(span.text, span.start);
+        }
+        
+        void appendSeparator() {
+            text.append("\n\n");
+        }
+        
+        private void appendPiece(String piece, int sourceStart) {
+            pieces.add(new int[]{text.length(), sourceStart, piece.length()});
+            text.append(piece);
+        }
+        
+        int length() {
+            return text.length();
+        }
+        
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+        
+        /**
+         * 从块文本 from 处开始的剩余部分，作为下一块开头的重叠内容
+         */
+        ChunkBuilder tail(int from) {
+            ChunkBuilder tail = new ChunkBuilder();
+            tail.text.append(text, from, text.length());
+            for (int[] piece : pieces) {
+                int skip = Math.max(from - piece[0], 0);
+                if (skip < piece[2]) {
+                    tail.pieces.add(new int[]{piece[0] + skip - from, piece[1] + skip, piece[2] - skip});
+                }
+            }
+            return tail;
+        }
+        
+        /**
+         * 块文本第 offset 个字符对应的原文偏移；落在片段之间的分隔符上时取下一片段的起点
+         */
+        private int sourceOffset(int offset) {
+            for (int[] piece : pieces) {
+                if (offset < piece[0] + piece[2]) {
+                    return piece[1] + Math.max(offset - piece[0], 0);
+                }
+            }
+            int[] last = pieces.get(pieces.size() - 1);
+            return last[1] + last[2];
+        }
+        
+        /**
+         * 去掉首尾空白后的块文本及其原文范围
+         */
+        Span build() {
+            int start = 0;
+            int end = text.length();
+            while (start < end && text.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (start == end || pieces.isEmpty()) {
+                return new Span("", 0, 0);
+            }
+            return new Span(text.substring(start, end), sourceOffset(start), sourceOffset(end - 1) + 1);
+        }
+    }
+    
     /**
      * 文本块数据类
      */
     public static class TextChunk {
         private final int index;
         private final String content;
+        // 块在切分原文中的 [起, 止) 偏移
+        private final int sourceStart;
+        private final int sourceEnd;
+        // 来源页码范围，仅按页提取的文档有值
+        private final Integer pageStart;
+        private final Integer pageEnd;
+        
+        public TextChunk(int index, String content, int sourceStart, int sourceEnd) {
+            this(index, content, sourceStart, sourceEnd, null, null);
+        }
         
-        public TextChunk(int index, String content) {
+        public TextChunk(int index, String content, int sourceStart, int sourceEnd, Integer pageStart, Integer pageEnd) {
             this.index = index;
             this.content = content;
+            this.sourceStart = sourceStart;
+            this.sourceEnd = sourceEnd;
+            this.pageStart = pageStart;
+            this.pageEnd = pageEnd;
         }
         
         public int getIndex() {
@@ -354,5 +648,21 @@ public class TextChunkingService {
         public String getContent() {
             return content;
         }
+        
+        public int getSourceStart() {
+            return sourceStart;
+        }
+        
+        public int getSourceEnd() {
+            return sourceEnd;
+        }
+        
+        public Integer getPageStart() {
+            return pageStart;
+        }
+        
+        public Integer getPageEnd() {
+            return pageEnd;
+        }
     }
 }
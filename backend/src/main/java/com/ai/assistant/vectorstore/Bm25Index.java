@@ -0,0 +1,130 @@
+package com.ai.assistant.vectorstore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 知识库文本块的 BM25 倒排索引
+ *
+ * 以 {@link VectorIndex} 的行号为文档编号，对每行 content 用 {@link TextTokenizer} 分词，
+ * 为每个词维护 (行号, 词频) 倒排列表；随向量索引增量追加，墓碑和候选行位图在检索时复用向量索引的。
+ * 只保存在内存中，首次关键词检索时由向量索引的 content 建立，紧凑后重建。
+ * <p>
+ * 并发约定与 {@link VectorIndex} 相同：写操作（addPending）由调用方串行化，读操作无需加锁。
+ * 倒排列表先写元素再发布计数，扩容时复制到新数组；已索引行数在该行的倒排和长度写完后发布。
+ */
+public final class Bm25Index {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final long TERM_OVERHEAD_BYTES = 96;
+
+    /**
+     * 单个词的倒排列表，元素按 [行号, 词频] 成对存放
+     */
+    private static final class Postings {
+        private volatile int[] entries = new int[4];
+        private volatile int count;
+
+        void add(int row, int frequency) {
+            int[] current = entries;
+            if (count * 2 + 2 > current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                entries = current;
+            }
+            current[count * 2] = row;
+            current[count * 2 + 1] = frequency;
+            count = count + 1;
+        }
+    }
+
+    private final Map<String, Postings> postings = new ConcurrentHashMap<>();
+    private volatile int[] lengths = new int[0];
+    private volatile int size;
+    private volatile long totalLength;
+    private volatile long postingCount;
+
+    /**
+     * 索引向量索引中尚未索引的行
+     */
+    public void addPending(VectorIndex index) {
+        while (size < index.size()) {
+            int row = size;
+            if (row >= lengths.length) {
+                lengths = Arrays.copyOf(lengths, Math.max(64, row * 3 / 2 + 1));
+            }
+
+            Map<String, Integer> frequencies = new HashMap<>();
+            int length = 0;
+            for (String token : TextTokenizer.tokenize(index.content(row))) {
+                frequencies.merge(token, 1, Integer::sum);
+                length++;
+            }
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new Postings()).add(row, entry.getValue());
+            }
+            lengths[row] = length;
+            totalLength = totalLength + length;
+            postingCount = postingCount + frequencies.size();
+            size = row + 1;
+        }
+    }
+
+    /**
+     * 按 BM25 得分检索，墓碑行和候选行位图（为 null 时不限制）之外的行不会进入收集器
+     */
+    public void search(String query, VectorIndex index, int source, TopKCollector collector, BitSet allowed) {
+        int limit = size;
+        if (limit == 0) {
+            return;
+        }
+        int[] rowLengths = lengths;
+        float averageLength = Math.max((float) totalLength / limit, 1.0f);
+
+        Set<String> terms = new LinkedHashSet<>(TextTokenizer.tokenize(query));
+        float[] scores = new float[limit];
+        BitSet touched = new BitSet(limit);
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                continue;
+            }
+            int count = list.count;
+            int[] entries = list.entries;
+            float idf = (float) Math.log(1.0 + (limit - count + 0.5) / (count + 0.5));
+            for (int i = 0; i < count; i++) {
+                int row = entries[i * 2];
+                if (row >= limit || (allowed != null && !allowed.get(row))) {
+                    continue;
+                }
+                int frequency = entries[i * 2 + 1];
+                float norm = K1 * (1 - B + B * rowLengths[row] / averageLength);
+                scores[row] += idf * frequency * (K1 + 1) / (frequency + norm);
+                touched.set(row);
+            }
+        }
+
+        for (int row = touched.nextSetBit(0); row >= 0; row = touched.nextSetBit(row + 1)) {
+            if (!index.isDeleted(row)) {
+                collector.offer(TopKCollector.ref(source, row), scores[row]);
+            }
+        }
+    }
+
+    /**
+     * 估算占用的堆内存字节数
+     */
+    public long estimatedBytes() {
+        return postingCount * 2 * Integer.BYTES + (long) postings.size() * TERM_OVERHEAD_BYTES
+                + (long) lengths.length * Integer.BYTES;
+    }
+
+    public int size() {
+        return size;
+    }
+}
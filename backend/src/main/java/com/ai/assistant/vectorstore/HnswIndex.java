@@ -0,0 +1,415 @@
+package com.ai.assistant.vectorstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * HNSW（分层可导航小世界图）近似最近邻索引
+ *
+ * 图节点即 {@link VectorIndex} 的行号，必须按行号顺序插入。向量本身不在图中保存，
+ * 相似度计算全部委托给所属的 {@link VectorIndex}，INT8 模式下建图与检索均使用量化分数。墓碑行仍参与图遍历，只在结果中被过滤。
+ * <p>
+ * 插入由调用方保证单线程执行，检索无需加锁：邻居表只追加或整体替换，检索只访问开始时
+ * 已在 {@link VectorIndex} 中发布的行，遇到尚未完整可见的节点直接跳过。
+ */
+public class HnswIndex {
+
+    public static final String FILE_SUFFIX = ".hnsw";
+
+    private static final int MAGIC = 0x57534E48; // "HNSW"
+    private static final int VERSION = 2;
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random;
+
+    /**
+     * links[node][level] = {count, neighbor...}
+     */
+    private volatile int[][][] links = new int[0][][];
+    private volatile int size;
+    private volatile int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * 持久化时对应的向量段代号，仅在读取文件后有意义
+     */
+    private long segmentGeneration;
+
+    /**
+     * 图遍历候选：行号与相似度
+     */
+    private static class Candidate {
+        private final int row;
+        private final float score;
+
+        Candidate(int row, float score) {
+            this.row = row;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Candidate> BEST_FIRST = (a, b) -> Float.compare(b.score, a.score);
+    private static final Comparator<Candidate> WORST_FIRST = (a, b) -> Float.compare(a.score, b.score);
+
+    public HnswIndex(int m, int efConstruction) {
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(Math.max(m, 2));
+        this.random = new Random(42);
+    }
+
+    public static Path file(Path dir, String knowledgeBaseId) {
+        return dir.resolve(knowledgeBaseId + FILE_SUFFIX);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getSegmentGeneration() {
+        return segmentGeneration;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * 将索引中尚未入图的行依次插入
+     */
+    public void addPending(VectorIndex index) {
+        float[] vector = new float[index.dimension()];
+        while (size < index.size()) {
+            index.readVector(size, vector);
+            insert(size, new QueryVector(vector), index);
+        }
+    }
+
+    /**
+     * 近似检索，墓碑行不会进入收集器
+     */
+    public void search(QueryVector query, int efSearch, VectorIndex index, int source, TopKCollector collector) {
+        search(query, efSearch, index, source, collector, null);
+    }
+
+    /**
+     * 带候选行位图的近似检索：图遍历仍经过位图外的节点以保持连通，但只有位图内的行进入收集器。
+     * 位图为 null 时不限制
+     */
+    public void search(QueryVector query, int efSearch, VectorIndex index, int source, TopKCollector collector,
+                       BitSet allowed) {
+        // 入口点在对应行发布之后才更新，先读入口点再读行数可保证入口点可见
+        int entry = entryPoint;
+        int limit = index.size();
+        int[][] entryLinks = nodeLinks(entry);
+        if (entry < 0 || entry >= limit || entryLinks == null) {
+            return;
+        }
+
+        Candidate current = new Candidate(entry, index.score(entry, query));
+        for (int level = entryLinks.length - 1; level > 0; level--) {
+            current = greedyClosest(query, current, level, index, limit);
+        }
+
+        for (Candidate candidate : searchLayer(query, current, efSearch, 0, index, limit)) {
+            if (!index.isDeleted(candidate.row) && (allowed == null || allowed.get(candidate.row))) {
+                collector.offer(TopKCollector.ref(source, candidate.row), candidate.score);
+            }
+        }
+    }
+
+    /**
+     * 估算占用的堆内存字节数
+     */
+    public long estimatedBytes() {
+        int[][][] current = links;
+        long bytes = (long) current.length * 16;
+        for (int i = 0; i < Math.min(size, current.length); i++) {
+            if (current[i] == null) {
+                continue;
+            }
+            for (int[] layer : current[i]) {
+                bytes += 16 + (long) layer.length * Integer.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    private void insert(int node, QueryVector vector, VectorIndex index) {
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        ensureCapacity(node + 1);
+        int[][] own = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            own[l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        links[node] = own;
+        size = node + 1;
+
+        if (entryPoint < 0) {
+            maxLevel = level;
+            entryPoint = node;
+            return;
+        }
+
+        int limit = node + 1;
+        Candidate current = new Candidate(entryPoint, index.score(entryPoint, vector));
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(vector, current, l, index, limit);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            PriorityQueue<Candidate> found = searchLayer(vector, current, efConstruction, l, index, limit);
+            List<Candidate> ordered = new ArrayList<>(found);
+            ordered.sort(BEST_FIRST);
+
+            int capacity = l == 0 ? maxM0 : m;
+            int[] list = own[l];
+            for (Candidate selected : selectNeighbors(ordered, m, index)) {
+                list[list[0] + 1] = selected.row;
+                list[0]++;
+            }
+            for (int i = 1; i <= list[0]; i++) {
+                connect(list[i], node, l, capacity, index);
+            }
+            current = ordered.get(0);
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 启发式选边：候选按相似度从高到低考察，只保留比已选邻居更接近基准点的候选，
+     * 使邻居分布在不同方向上，保证图在聚簇数据上的连通性
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> ordered, int limit, VectorIndex index) {
+        List<Candidate> selected = new ArrayList<>(limit);
+        float[] vector = new float[index.dimension()];
+        for (Candidate candidate : ordered) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            index.readVector(candidate.row, vector);
+            QueryVector candidateVector = new QueryVector(vector);
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (index.score(chosen.row, candidateVector) > candidate.score) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 为邻居添加反向边，超出容量时按启发式规则重新选边；
+     * 追加时先写邻居再增计数，重新选边时构造新表整体替换，检索线程不会读到不一致的邻居表
+     */
+    private void connect(int neighbor, int node, int level, int capacity, VectorIndex index) {
+        int[] list = links[neighbor][level];
+        if (list[0] < capacity) {
+            list[list[0] + 1] = node;
+            list[0]++;
+            return;
+        }
+
+        float[] vector = new float[index.dimension()];
+        index.readVector(neighbor, vector);
+        QueryVector base = new QueryVector(vector);
+        List<Candidate> ordered = new ArrayList<>(list[0] + 1);
+        ordered.add(new Candidate(node, index.score(node, base)));
+        for (int i = 1; i <= list[0]; i++) {
+            ordered.add(new Candidate(list[i], index.score(list[i], base)));
+        }
+        ordered.sort(BEST_FIRST);
+
+        int[] replaced = new int[list.length];
+        for (Candidate candidate : selectNeighbors(ordered, capacity, index)) {
+            replaced[++replaced[0]] = candidate.row;
+        }
+        links[neighbor][level] = replaced;
+    }
+
+    private Candidate greedyClosest(QueryVector query, Candidate start, int level, VectorIndex index, int limit) {
+        Candidate best = start;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] list = neighbors(best.row, level);
+            if (list == null) {
+                break;
+            }
+            int count = Math.min(list[0], list.length - 1);
+            for (int i = 1; i <= count; i++) {
+                if (list[i] >= limit) {
+                    continue;
+                }
+                float score = index.score(list[i], query);
+                if (score > best.score) {
+                    best = new Candidate(list[i], score);
+                    changed = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 单层束搜索，返回以最差结果为堆顶的候选集
+     */
+    private PriorityQueue<Candidate> searchLayer(QueryVector query, Candidate start, int ef, int level,
+                                                 VectorIndex index, int limit) {
+        BitSet visited = new BitSet(limit);
+        visited.set(start.row);
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Candidate> found = new PriorityQueue<>(WORST_FIRST);
+        candidates.add(start);
+        found.add(start);
+
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (found.size() >= ef && current.score < found.peek().score) {
+                break;
+            }
+
+            int[] list = neighbors(current.row, level);
+            if (list == null) {
+                continue;
+            }
+            int count = Math.min(list[0], list.length - 1);
+            for (int i = 1; i <= count; i++) {
+                int neighbor = list[i];
+                if (neighbor >= limit || visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+
+                float score = index.score(neighbor, query);
+                if (found.size() < ef || score > found.peek().score) {
+                    Candidate candidate = new Candidate(neighbor, score);
+                    candidates.add(candidate);
+                    found.add(candidate);
+                    if (found.size() > ef) {
+                        found.poll();
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 节点的各层邻居表，节点尚未对当前线程可见时返回 null
+     */
+    private int[][] nodeLinks(int node) {
+        int[][][] current = links;
+        return node >= 0 && node < current.length ? current[node] : null;
+    }
+
+    private int[] neighbors(int node, int level) {
+        int[][] nodeLinks = nodeLinks(node);
+        return nodeLinks != null && level < nodeLinks.length ? nodeLinks[level] : null;
+    }
+
+    private void ensureCapacity(int nodes) {
+        int[][][] current = links;
+        if (nodes <= current.length) {
+            return;
+        }
+        int[][][] resized = new int[Math.max(nodes, Math.max(64, current.length * 3 / 2))][][];
+        System.arraycopy(current, 0, resized, 0, size);
+        links = resized;
+    }
+
+    /**
+     * 持久化图结构并记录对应的向量段代号（先写临时文件再原子替换）
+     */
+    public void write(Path file, long segmentGeneration) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(segmentGeneration);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < size; node++) {
+                int[][] nodeLinks = links[node];
+                out.writeInt(nodeLinks.length);
+                for (int[] list : nodeLinks) {
+                    out.writeInt(list[0]);
+                    for (int i = 1; i <= list[0]; i++) {
+                        out.writeInt(list[i]);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取图结构，文件不存在时返回 null
+     */
+    public static HnswIndex read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("无效的HNSW索引文件: " + file);
+            }
+            long segmentGeneration = in.readLong();
+            HnswIndex graph = new HnswIndex(in.readInt(), in.readInt());
+            graph.segmentGeneration = segmentGeneration;
+            int size = in.readInt();
+            int entryPoint = in.readInt();
+            graph.maxLevel = in.readInt();
+            graph.ensureCapacity(size);
+            for (int node = 0; node < size; node++) {
+                int levels = in.readInt();
+                graph.links[node] = new int[levels][];
+                for (int l = 0; l < levels; l++) {
+                    int[] list = new int[(l == 0 ? graph.maxM0 : graph.m) + 1];
+                    list[0] = in.readInt();
+                    for (int i = 1; i <= list[0]; i++) {
+                        list[i] = in.readInt();
+                    }
+                    graph.links[node][l] = list;
+                }
+            }
+            graph.size = size;
+            graph.entryPoint = entryPoint;
+            return graph;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.ai.assistant.vectorstore;
+
+/**
+ * 对称 int8 标量量化：每个向量一个缩放因子 scale = max|x| / 127，码值 round(x / scale)
+ */
+public final class Int8Quantizer {
+
+    private static final float MAX_CODE = 127.0f;
+
+    private Int8Quantizer() {}
+
+    /**
+     * 量化 source[offset, offset + length) 写入 target，返回缩放因子
+     */
+    public static float quantize(float[] source, int offset, int length, byte[] target, int targetOffset) {
+        float maxAbs = 0.0f;
+        for (int i = 0; i < length; i++) {
+            maxAbs = Math.max(maxAbs, Math.abs(source[offset + i]));
+        }
+        if (maxAbs == 0.0f) {
+            return 0.0f;
+        }
+
+        float scale = maxAbs / MAX_CODE;
+        float inverse = 1.0f / scale;
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = (byte) Math.round(source[offset + i] * inverse);
+        }
+        return scale;
+    }
+}
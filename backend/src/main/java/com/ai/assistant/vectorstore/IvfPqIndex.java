@@ -0,0 +1,491 @@
+package com.ai.assistant.vectorstore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * IVF-PQ（倒排 + 乘积量化）近似最近邻索引
+ *
+ * 先用 k-means 训练 nlist 个粗聚类中心，每行归入最近的中心所在的倒排列表；
+ * 行向量与中心的残差切分为 m 个子向量，每段用 256 个码字的子码本编码为 1 字节。
+ * 检索时只扫描与查询最相似的 nprobe 个列表，分数按 q·c + Σ LUT[j][code_j] 计算，
+ * 查表 LUT 与列表无关，每次查询只算一次。
+ *
+ * 节点即 {@link VectorIndex} 的行号，必须按行号顺序编码；墓碑行不进入倒排列表。
+ * 编码由调用方保证单线程执行，检索无需加锁：倒排列表先写数据再增计数，扩容时整体替换，
+ * 检索只访问开始时已在 {@link VectorIndex} 中发布的行。
+ * 码本训练完成后新增行直接用已有码本编码，数据分布变化较大时由调用方重新训练。
+ */
+public class IvfPqIndex {
+
+    public static final String FILE_SUFFIX = ".ivfpq";
+
+    private static final int MAGIC = 0x51505649; // "IVPQ"
+    private static final int VERSION = 2;
+    private static final int CODEBOOK_SIZE = 256;
+    private static final int MIN_POINTS_PER_CENTROID = 39;
+    private static final VectorScorer SCORER = VectorScorers.get();
+
+    private final int dimension;
+    private final int nlist;
+    private final int subQuantizers;
+    private final int subDimension;
+    private final int trainedOn;
+
+    /**
+     * 粗聚类中心，nlist * dimension
+     */
+    private final float[] centroids;
+    private final float[] centroidHalfNorms;
+
+    /**
+     * 子码本，第 j 段的第 k 个码字位于 (j * 256 + k) * subDimension
+     */
+    private final float[] codebooks;
+    private final float[] codewordHalfNorms;
+
+    private final int[][] listRows;
+    private final byte[][] listCodes;
+    private final int[] listSizes;
+    private volatile int size;
+
+    /**
+     * 持久化时对应的向量段代号，仅在读取文件后有意义
+     */
+    private long segmentGeneration;
+
+    private IvfPqIndex(int dimension, int nlist, int subQuantizers, int trainedOn,
+                       float[] centroids, float[] codebooks) {
+        this.dimension = dimension;
+        this.nlist = nlist;
+        this.subQuantizers = subQuantizers;
+        this.subDimension = dimension / subQuantizers;
+        this.trainedOn = trainedOn;
+        this.centroids = centroids;
+        this.codebooks = codebooks;
+        this.centroidHalfNorms = halfNorms(centroids, nlist, dimension);
+        this.codewordHalfNorms = halfNorms(codebooks, subQuantizers * CODEBOOK_SIZE, subDimension);
+        this.listRows = new int[nlist][];
+        this.listCodes = new byte[nlist][];
+        this.listSizes = new int[nlist];
+        for (int list = 0; list < nlist; list++) {
+            listRows[list] = new int[0];
+            listCodes[list] = new byte[0];
+        }
+    }
+
+    public static Path file(Path dir, String knowledgeBaseId) {
+        return dir.resolve(knowledgeBaseId + FILE_SUFFIX);
+    }
+
+    /**
+     * 从索引的存活行中抽样训练粗聚类中心和子码本，返回的索引尚未编码任何行
+     *
+     * @param nlist          期望的倒排列表数，样本不足时自动减少
+     * @param subQuantizers  期望的子向量段数，取不超过该值的维度约数
+     */
+    public static IvfPqIndex train(VectorIndex index, int nlist, int subQuantizers,
+                                   int sampleSize, int iterations) {
+        int dimension = index.dimension();
+        Random random = new Random(42);
+        int[] rows = sampleRows(index, sampleSize, random);
+        int count = rows.length;
+        if (count == 0) {
+            throw new IllegalStateException("没有可用于训练的向量: " + index.getKnowledgeBaseId());
+        }
+
+        float[] sample = new float[count * dimension];
+        float[] row = new float[dimension];
+        for (int i = 0; i < count; i++) {
+            index.readVector(rows[i], row);
+            System.arraycopy(row, 0, sample, i * dimension, dimension);
+        }
+
+        int lists = Math.max(1, Math.min(nlist, count / MIN_POINTS_PER_CENTROID));
+        float[] centroids = kmeans(sample, count, dimension, lists, iterations, random);
+        float[] halfNorms = halfNorms(centroids, lists, dimension);
+
+        // 码本在残差上训练
+        for (int i = 0; i < count; i++) {
+            int offset = i * dimension;
+            int list = nearest(sample, offset, centroids, halfNorms, lists, dimension);
+            for (int d = 0; d < dimension; d++) {
+                sample[offset + d] -= centroids[list * dimension + d];
+            }
+        }
+
+        int m = largestDivisor(dimension, Math.max(1, subQuantizers));
+        int subDimension = dimension / m;
+        float[] codebooks = new float[m * CODEBOOK_SIZE * subDimension];
+        float[] subSample = new float[count * subDimension];
+        for (int j = 0; j < m; j++) {
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(sample, i * dimension + j * subDimension, subSample, i * subDimension, subDimension);
+            }
+            float[] codebook = kmeans(subSample, count, subDimension, CODEBOOK_SIZE, iterations, random);
+            System.arraycopy(codebook, 0, codebooks, j * CODEBOOK_SIZE * subDimension, codebook.length);
+        }
+
+        return new IvfPqIndex(dimension, lists, m, index.liveCount(), centroids, codebooks);
+    }
+
+    /**
+     * 复用码本的空索引，用于索引紧凑后行号变化时重新编码
+     */
+    public IvfPqIndex emptyCopy() {
+        return new IvfPqIndex(dimension, nlist, subQuantizers, trainedOn, centroids, codebooks);
+    }
+
+    /**
+     * 将索引中尚未编码的行依次编入倒排列表
+     */
+    public void addPending(VectorIndex index) {
+        float[] vector = new float[dimension];
+        byte[] codes = new byte[subQuantizers];
+        while (size < index.size()) {
+            if (!index.isDeleted(size)) {
+                index.readVector(size, vector);
+                int list = nearest(vector, 0, centroids, centroidHalfNorms, nlist, dimension);
+                encodeResidual(vector, list, codes);
+                append(list, size, codes);
+            }
+            size++;
+        }
+    }
+
+    /**
+     * 近似检索，只扫描与查询最相似的 nprobe 个倒排列表，墓碑行不会进入收集器
+     */
+    public void search(QueryVector query, int nprobe, VectorIndex index, int source, TopKCollector collector) {
+        search(query, nprobe, index, source, collector, null);
+    }
+
+    /**
+     * 带候选行位图的近似检索，位图外的行在查表打分之前跳过；位图为 null 时不限制
+     */
+    public void search(QueryVector query, int nprobe, VectorIndex index, int source, TopKCollector collector,
+                       BitSet allowed) {
+        float[] q = query.values();
+        int limit = index.size();
+
+        TopKCollector probes = new TopKCollector(Math.min(Math.max(nprobe, 1), nlist));
+        float[] coarse = new float[nlist];
+        for (int list = 0; list < nlist; list++) {
+            coarse[list] = SCORER.dot(q, 0, centroids, list * dimension, dimension);
+            probes.offer(list, coarse[list]);
+        }
+        long[] probed = new long[probes.size()];
+        int probeCount = probes.drain(probed, new float[probed.length]);
+
+        float[] lut = new float[subQuantizers * CODEBOOK_SIZE];
+        for (int j = 0; j < subQuantizers; j++) {
+            for (int k = 0; k < CODEBOOK_SIZE; k++) {
+                lut[j * CODEBOOK_SIZE + k] = SCORER.dot(q, j * subDimension,
+                        codebooks, (j * CODEBOOK_SIZE + k) * subDimension, subDimension);
+            }
+        }
+
+        for (int p = 0; p < probeCount; p++) {
+            int list = (int) probed[p];
+            int[] rows = listRows[list];
+            byte[] codes = listCodes[list];
+            int count = Math.min(listSizes[list], Math.min(rows.length, codes.length / subQuantizers));
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                if (row >= limit || (allowed != null && !allowed.get(row)) || index.isDeleted(row)) {
+                    continue;
+                }
+                float score = coarse[list];
+                int codeOffset = i * subQuantizers;
+                for (int j = 0; j < subQuantizers; j++) {
+                    score += lut[j * CODEBOOK_SIZE + (codes[codeOffset + j] & 0xFF)];
+                }
+                collector.offer(TopKCollector.ref(source, row), score);
+            }
+        }
+    }
+
+    /**
+     * 估算占用的堆内存字节数
+     */
+    public long estimatedBytes() {
+        long bytes = (long) (centroids.length + codebooks.length) * Float.BYTES;
+        for (int list = 0; list < nlist; list++) {
+            bytes += 32 + (long) listRows[list].length * Integer.BYTES + listCodes[list].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * 已编码的行数（含被跳过的墓碑行）
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getSegmentGeneration() {
+        return segmentGeneration;
+    }
+
+    /**
+     * 训练时的存活行数，用于判断是否需要重新训练
+     */
+    public int getTrainedOn() {
+        return trainedOn;
+    }
+
+    public int getNlist() {
+        return nlist;
+    }
+
+    public int getSubQuantizers() {
+        return subQuantizers;
+    }
+
+    private void encodeResidual(float[] vector, int list, byte[] codes) {
+        float[] residual = new float[subDimension];
+        for (int j = 0; j < subQuantizers; j++) {
+            int base = j * subDimension;
+            for (int d = 0; d < subDimension; d++) {
+                residual[d] = vector[base + d] - centroids[list * dimension + base + d];
+            }
+            int best = 0;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int k = 0; k < CODEBOOK_SIZE; k++) {
+                int word = j * CODEBOOK_SIZE + k;
+                float score = SCORER.dot(residual, 0, codebooks, word * subDimension, subDimension)
+                        - codewordHalfNorms[word];
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = k;
+                }
+            }
+            codes[j] = (byte) best;
+        }
+    }
+
+    private void append(int list, int row, byte[] codes) {
+        int count = listSizes[list];
+        if (count == listRows[list].length) {
+            int grown = Math.max(8, count * 3 / 2);
+            listCodes[list] = Arrays.copyOf(listCodes[list], grown * subQuantizers);
+            listRows[list] = Arrays.copyOf(listRows[list], grown);
+        }
+        listRows[list][count] = row;
+        System.arraycopy(codes, 0, listCodes[list], count * subQuantizers, subQuantizers);
+        listSizes[list] = count + 1;
+    }
+
+    /**
+     * 按 L2 距离找最近的中心：argmin |x - c|² 等价于 argmax (x·c - |c|²/2)
+     */
+    private static int nearest(float[] data, int offset, float[] centers, float[] halfNorms, int k, int dim) {
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            float score = SCORER.dot(data, offset, centers, c * dim, dim) - halfNorms[c];
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Lloyd k-means，空簇用随机样本点重新播种；样本数少于 k 时允许重复选点
+     */
+    private static float[] kmeans(float[] data, int count, int dim, int k, int iterations, Random random) {
+        float[] centers = new float[k * dim];
+        int[] seeds = count >= k ? distinctSample(count, k, random) : random.ints(k, 0, count).toArray();
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(data, seeds[c] * dim, centers, c * dim, dim);
+        }
+
+        int[] assignment = new int[count];
+        double[] sums = new double[k * dim];
+        int[] counts = new int[k];
+        for (int iter = 0; iter < iterations; iter++) {
+            float[] halfNorms = halfNorms(centers, k, dim);
+            boolean changed = false;
+            for (int i = 0; i < count; i++) {
+                int nearest = nearest(data, i * dim, centers, halfNorms, k, dim);
+                if (iter == 0 || nearest != assignment[i]) {
+                    assignment[i] = nearest;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+
+            Arrays.fill(sums, 0.0);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) {
+                int c = assignment[i];
+                counts[c]++;
+                for (int d = 0; d < dim; d++) {
+                    sums[c * dim + d] += data[i * dim + d];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    System.arraycopy(data, random.nextInt(count) * dim, centers, c * dim, dim);
+                    continue;
+                }
+                for (int d = 0; d < dim; d++) {
+                    centers[c * dim + d] = (float) (sums[c * dim + d] / counts[c]);
+                }
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * 从存活行中无放回抽样，存活行不多于 sampleSize 时全部返回
+     */
+    private static int[] sampleRows(VectorIndex index, int sampleSize, Random random) {
+        int[] live = new int[index.liveCount()];
+        int count = 0;
+        for (int row = 0; row < index.size() && count < live.length; row++) {
+            if (!index.isDeleted(row)) {
+                live[count++] = row;
+            }
+        }
+        if (count <= sampleSize) {
+            return Arrays.copyOf(live, count);
+        }
+
+        int[] picked = distinctSample(count, sampleSize, random);
+        for (int i = 0; i < picked.length; i++) {
+            picked[i] = live[picked[i]];
+        }
+        Arrays.sort(picked);
+        return picked;
+    }
+
+    /**
+     * Floyd 算法：从 [0, n) 中无放回抽取 k 个
+     */
+    private static int[] distinctSample(int n, int k, Random random) {
+        BitSet chosen = new BitSet(n);
+        int[] result = new int[k];
+        int count = 0;
+        for (int j = n - k; j < n; j++) {
+            int t = random.nextInt(j + 1);
+            int pick = chosen.get(t) ? j : t;
+            chosen.set(pick);
+            result[count++] = pick;
+        }
+        return result;
+    }
+
+    private static int largestDivisor(int n, int atMost) {
+        for (int m = Math.min(n, atMost); m > 1; m--) {
+            if (n % m == 0) {
+                return m;
+            }
+        }
+        return 1;
+    }
+
+    private static float[] halfNorms(float[] centers, int k, int dim) {
+        float[] norms = new float[k];
+        for (int c = 0; c < k; c++) {
+            norms[c] = 0.5f * SCORER.dot(centers, c * dim, centers, c * dim, dim);
+        }
+        return norms;
+    }
+
+    /**
+     * 持久化码本与倒排列表并记录对应的向量段代号（先写临时文件再原子替换，后台训练与常规保存可能并发写入）
+     */
+    public void write(Path file, long segmentGeneration) throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(segmentGeneration);
+                out.writeInt(dimension);
+                out.writeInt(nlist);
+                out.writeInt(subQuantizers);
+                out.writeInt(trainedOn);
+                out.writeInt(size);
+                for (float v : centroids) {
+                    out.writeFloat(v);
+                }
+                for (float v : codebooks) {
+                    out.writeFloat(v);
+                }
+                for (int list = 0; list < nlist; list++) {
+                    int count = listSizes[list];
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeInt(listRows[list][i]);
+                    }
+                    out.write(listCodes[list], 0, count * subQuantizers);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 读取索引，文件不存在时返回 null
+     */
+    public static IvfPqIndex read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("无效的IVF-PQ索引文件: " + file);
+            }
+            long segmentGeneration = in.readLong();
+            int dimension = in.readInt();
+            int nlist = in.readInt();
+            int subQuantizers = in.readInt();
+            int trainedOn = in.readInt();
+            int size = in.readInt();
+
+            float[] centroids = new float[nlist * dimension];
+            for (int i = 0; i < centroids.length; i++) {
+                centroids[i] = in.readFloat();
+            }
+            float[] codebooks = new float[subQuantizers * CODEBOOK_SIZE * (dimension / subQuantizers)];
+            for (int i = 0; i < codebooks.length; i++) {
+                codebooks[i] = in.readFloat();
+            }
+
+            IvfPqIndex ivf = new IvfPqIndex(dimension, nlist, subQuantizers, trainedOn, centroids, codebooks);
+            for (int list = 0; list < nlist; list++) {
+                int count = in.readInt();
+                int[] rows = new int[count];
+                for (int i = 0; i < count; i++) {
+                    rows[i] = in.readInt();
+                }
+                byte[] codes = new byte[count * subQuantizers];
+                in.readFully(codes);
+                ivf.listRows[list] = rows;
+                ivf.listCodes[list] = codes;
+                ivf.listSizes[list] = count;
+            }
+            ivf.size = size;
+            ivf.segmentGeneration = segmentGeneration;
+            return ivf;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.ai.assistant.vectorstore;
+
+/**
+ * 预处理后的查询向量：L2 归一化的 float 值，以及按需生成的 int8 量化码
+ */
+public class QueryVector {
+
+    private final float[] values;
+    private byte[] codes;
+    private float scale;
+
+    public QueryVector(float[] vector) {
+        this.values = VectorIndex.normalize(vector);
+    }
+
+    public float[] values() {
+        return values;
+    }
+
+    public int dimension() {
+        return values.length;
+    }
+
+    /**
+     * int8 量化码，首次访问时计算
+     */
+    public byte[] codes() {
+        if (codes == null) {
+            codes = new byte[values.length];
+            scale = Int8Quantizer.quantize(values, 0, values.length, codes, 0);
+        }
+        return codes;
+    }
+
+    public float scale() {
+        codes();
+        return scale;
+    }
+}
@@ -0,0 +1,123 @@
+package com.ai.assistant.vectorstore;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 向量检索的元数据过滤条件，各条件之间为“与”关系
+ *
+ * 条件只涉及文档级属性（文档ID、标签、分类、创建时间），先在文档表上求值，
+ * 再合并命中文档的行号列表得到候选行位图，检索只对位图内的行打分（见 {@link VectorIndex#matchingRows}）。
+ * <pre>
+ * SearchFilter.create().tagContains("合同").createdAfter(since).documentIdNotIn(excluded)
+ * </pre>
+ */
+public final class SearchFilter {
+
+    private Set<String> documentIdIn;
+    private final Set<String> documentIdNotIn = new HashSet<>();
+    private final Set<String> tags = new HashSet<>();
+    private String category;
+    private Long createdAfter;
+
+    private SearchFilter() {}
+
+    public static SearchFilter create() {
+        return new SearchFilter();
+    }
+
+    /**
+     * 只检索指定文档；多次调用取交集
+     */
+    public SearchFilter documentIdIn(Collection<String> documentIds) {
+        Set<String> ids = new HashSet<>(documentIds);
+        if (documentIdIn != null) {
+            ids.retainAll(documentIdIn);
+        }
+        documentIdIn = ids;
+        return this;
+    }
+
+    /**
+     * 排除指定文档
+     */
+    public SearchFilter documentIdNotIn(Collection<String> documentIds) {
+        documentIdNotIn.addAll(documentIds);
+        return this;
+    }
+
+    /**
+     * 文档标签中包含指定标签；多次调用要求全部包含
+     */
+    public SearchFilter tagContains(String tag) {
+        tags.add(tag);
+        return this;
+    }
+
+    /**
+     * 文档分类等于指定值
+     */
+    public SearchFilter categoryEquals(String category) {
+        this.category = category;
+        return this;
+    }
+
+    /**
+     * 文档创建时间（毫秒时间戳）晚于指定值
+     */
+    public SearchFilter createdAfter(long timestamp) {
+        this.createdAfter = timestamp;
+        return this;
+    }
+
+    /**
+     * 没有任何条件
+     */
+    public boolean isEmpty() {
+        return documentIdIn == null && documentIdNotIn.isEmpty() && tags.isEmpty()
+                && category == null && createdAfter == null;
+    }
+
+    /**
+     * 判断一个文档是否满足条件；没有文档归属的行按文档ID为 null、无标签、无分类、无创建时间处理
+     */
+    public boolean matches(String documentId, List<String> documentTags, String documentCategory,
+                           Long documentCreatedAt) {
+        if (documentIdIn != null && (documentId == null || !documentIdIn.contains(documentId))) {
+            return false;
+        }
+        if (documentId != null && documentIdNotIn.contains(documentId)) {
+            return false;
+        }
+        if (!tags.isEmpty() && (documentTags == null || !documentTags.containsAll(tags))) {
+            return false;
+        }
+        if (category != null && !category.equals(documentCategory)) {
+            return false;
+        }
+        return createdAfter == null || (documentCreatedAt != null && documentCreatedAt > createdAfter);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("SearchFilter{");
+        if (documentIdIn != null) {
+            text.append("documentIdIn=").append(documentIdIn.size()).append(' ');
+        }
+        if (!documentIdNotIn.isEmpty()) {
+            text.append("documentIdNotIn=").append(documentIdNotIn.size()).append(' ');
+        }
+        if (!tags.isEmpty()) {
+            text.append("tags=").append(tags).append(' ');
+        }
+        if (category != null) {
+            text.append("category=").append(category).append(' ');
+        }
+        if (createdAfter != null) {
+            text.append("createdAfter=").append(createdAfter).append(' ');
+        }
+        return text.toString().trim() + "}";
+    }
+}
@@ -0,0 +1,31 @@
+package com.ai.assistant.vectorstore;
+
+/**
+ * 常驻索引的向量存储方式
+ */
+public enum StorageMode {
+
+    /**
+     * 原始 float32，每维 4 字节
+     */
+    FLOAT32,
+
+    /**
+     * 每向量一个缩放因子的对称 int8 标量量化，每维 1 字节
+     */
+    INT8;
+
+    /**
+     * 解析知识库配置中的存储方式，未配置或无法识别时为 FLOAT32
+     */
+    public static StorageMode of(String value) {
+        if (value == null || value.isBlank()) {
+            return FLOAT32;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return FLOAT32;
+        }
+    }
+}
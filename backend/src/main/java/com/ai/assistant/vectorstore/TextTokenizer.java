@@ -0,0 +1,107 @@
+package com.ai.assistant.vectorstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 面向中英文混排文本的分词器，供 {@link Bm25Index} 建索引和解析查询共用
+ *
+ * <ul>
+ *   <li>连续的中日韩字符切成重叠的二元组（“向量检索” → 向量 / 量检 / 检索），单字成词时保留单字</li>
+ *   <li>字母数字串转小写；中间带 {@code - _ . /} 的串（产品型号、错误码、版本号）整体作为一个词，
+ *       同时输出各组成部分，查询整串或其中一段都能命中</li>
+ *   <li>其余字符视为分隔符</li>
+ * </ul>
+ */
+public final class TextTokenizer {
+
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private TextTokenizer() {}
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            if (isCjk(codePoint)) {
+                int end = i;
+                while (end < length && isCjk(text.codePointAt(end))) {
+                    end += Character.charCount(text.codePointAt(end));
+                }
+                addCjkBigrams(text.substring(i, end), tokens);
+                i = end;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                int end = i;
+                while (end < length) {
+                    int c = text.codePointAt(end);
+                    if (Character.isLetterOrDigit(c) && !isCjk(c)) {
+                        end += Character.charCount(c);
+                    } else if (isConnector(c) && end + 1 < length && isWordChar(text.codePointAt(end + 1))) {
+                        end++;
+                    } else {
+                        break;
+                    }
+                }
+                addWord(text.substring(i, end).toLowerCase(), tokens);
+                i = end;
+            } else {
+                i += Character.charCount(codePoint);
+            }
+        }
+        return tokens;
+    }
+
+    private static void addCjkBigrams(String run, List<String> tokens) {
+        int[] codePoints = run.codePoints().toArray();
+        if (codePoints.length == 1) {
+            tokens.add(run);
+            return;
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            tokens.add(new String(codePoints, i, 2));
+        }
+    }
+
+    private static void addWord(String word, List<String> tokens) {
+        if (word.length() > MAX_TOKEN_LENGTH) {
+            word = word.substring(0, MAX_TOKEN_LENGTH);
+        }
+        tokens.add(word);
+
+        int start = 0;
+        boolean compound = false;
+        for (int i = 0; i <= word.length(); i++) {
+            if (i == word.length() || isConnector(word.charAt(i))) {
+                if (i < word.length()) {
+                    compound = true;
+                }
+                if (compound && i > start) {
+                    tokens.add(word.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    private static boolean isConnector(int c) {
+        return c == '-' || c == '_' || c == '.' || c == '/';
+    }
+
+    private static boolean isWordChar(int c) {
+        return Character.isLetterOrDigit(c) && !isCjk(c);
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
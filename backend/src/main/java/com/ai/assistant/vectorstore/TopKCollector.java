@@ -0,0 +1,118 @@
+package com.ai.assistant.vectorstore;
+
+/**
+ * 有界 topK 收集器
+ *
+ * 基于原始类型数组的最小堆，堆顶是当前第 K 名的分数，低于它的候选直接丢弃，
+ * 全程不创建任何对象。候选以 long 引用标识，通常由 {@link #ref(int, int)} 编码来源与行号。
+ */
+public class TopKCollector {
+
+    private final int capacity;
+    private final long[] refs;
+    private final float[] scores;
+    private int size;
+
+    public TopKCollector(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.refs = new long[this.capacity];
+        this.scores = new float[this.capacity];
+    }
+
+    /**
+     * 将来源序号与行号编码为候选引用
+     */
+    public static long ref(int source, int row) {
+        return ((long) source << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    public static int source(long ref) {
+        return (int) (ref >>> 32);
+    }
+
+    public static int row(long ref) {
+        return (int) ref;
+    }
+
+    /**
+     * 当前入堆门槛：堆未满时为负无穷
+     */
+    public float threshold() {
+        return size < capacity ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public void offer(long ref, float score) {
+        if (capacity == 0) {
+            return;
+        }
+        if (size < capacity) {
+            refs[size] = ref;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (score > scores[0]) {
+            refs[0] = ref;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * 按分数从高到低排序后返回，调用后收集器清空
+     */
+    public int drain(long[] refsOut, float[] scoresOut) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            refsOut[i] = refs[0];
+            scoresOut[i] = scores[0];
+            size--;
+            refs[0] = refs[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return count;
+    }
+
+    private void siftUp(int i) {
+        long ref = refs[i];
+        float score = scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= score) {
+                break;
+            }
+            refs[i] = refs[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        refs[i] = ref;
+        scores[i] = score;
+    }
+
+    private void siftDown(int i) {
+        long ref = refs[i];
+        float score = scores[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && scores[child + 1] < scores[child]) {
+                child++;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            refs[i] = refs[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        refs[i] = ref;
+        scores[i] = score;
+    }
+}
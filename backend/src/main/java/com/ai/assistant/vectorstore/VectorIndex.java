@@ -0,0 +1,502 @@
+package com.ai.assistant.vectorstore;
+
+import com.ai.assistant.service.CustomVectorStoreService.VectorData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 常驻内存的知识库向量索引
+ *
+ * 向量写入时即做 L2 归一化，检索时余弦相似度退化为点积；id / content / metadata 按行号并列存放。
+ * <ul>
+ *   <li>{@link StorageMode#FLOAT32}：向量按行连续存放在一个 float[] 矩阵中</li>
+ *   <li>{@link StorageMode#INT8}：堆内只保存 int8 量化码和每行缩放因子，原始 float 向量留在
+ *       映射的向量段文件中（尚未落盘的新行暂存在堆内），供精排和重写段文件使用</li>
+ * </ul>
+ * 删除只打墓碑标记，墓碑比例过高时由调用方触发 {@link #compact()}。
+ * 写入时按元数据中的 documentId 维护文档表（标签、分类、创建时间和该文档的行号列表），
+ * 检索的元数据过滤先在文档表上求值得到候选行位图（见 {@link #matchingRows}），不必逐行解析元数据。
+ * 可选挂载一个以行号为节点的 {@link HnswIndex} 近似检索图，或供超大知识库使用的 {@link IvfPqIndex}，
+ * 以及用于关键词检索的 {@link Bm25Index}。
+ * <p>
+ * 并发约定：写操作（add / delete / attachSegment）由调用方保证同一时刻只有一个线程执行；
+ * 读操作无需加锁。行数据只追加不覆盖，扩容时复制到新数组；行数与墓碑集合作为一个不可变状态
+ * 在行数据写完后整体发布，墓碑集合写时复制。读线程看到的是某个已发布状态的一致快照。
+ */
+public class VectorIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long ROW_OVERHEAD_BYTES = 256;
+    private static final VectorScorer SCORER = VectorScorers.get();
+
+    /**
+     * 已发布的行数与墓碑集合，发布后不再修改
+     */
+    private static final class State {
+        private final int size;
+        private final BitSet deleted;
+        private final int deletedCount;
+
+        State(int size, BitSet deleted) {
+            this.size = size;
+            this.deleted = deleted;
+            this.deletedCount = deleted.cardinality();
+        }
+    }
+
+    /**
+     * INT8 模式下原始向量的来源：映射的段文件覆盖前若干行，其后的新行暂存在堆内
+     */
+    private static final class RawRows {
+        private final VectorSegment segment;
+        private final float[][] pending;
+
+        RawRows(VectorSegment segment, float[][] pending) {
+            this.segment = segment;
+            this.pending = pending;
+        }
+
+        int segmentRows() {
+            return segment != null ? segment.size() : 0;
+        }
+    }
+
+    /**
+     * 一个文档的过滤属性与行号列表；行号只追加，先写数组元素再发布计数。
+     * 属性相同的行共用一个表项，文档改了标签、分类后重新写入的行归入新表项
+     */
+    private static final class DocumentRows {
+        private final String documentId;
+        private final List<String> tags;
+        private final String category;
+        private final Long createdAt;
+        private volatile int[] rows = new int[4];
+        private volatile int count;
+
+        DocumentRows(String documentId, List<String> tags, String category, Long createdAt) {
+            this.documentId = documentId;
+            this.tags = tags;
+            this.category = category;
+            this.createdAt = createdAt;
+        }
+
+        boolean hasAttributes(List<String> tags, String category, Long createdAt) {
+            return Objects.equals(this.tags, tags) && Objects.equals(this.category, category)
+                    && Objects.equals(this.createdAt, createdAt);
+        }
+
+        void add(int row) {
+            int[] current = rows;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                rows = current;
+            }
+            current[count] = row;
+            count = count + 1;
+        }
+    }
+
+    private final String knowledgeBaseId;
+    private final StorageMode storageMode;
+    private volatile int dimension;
+    private int capacity;
+    private volatile float[] vectors = new float[0];
+    private volatile byte[] codes = new byte[0];
+    private volatile float[] scales = new float[0];
+    private volatile RawRows raw = new RawRows(null, new float[0][]);
+    private volatile String[] ids = new String[0];
+    private volatile String[] contents = new String[0];
+    private volatile Map<String, Object>[] metadata = newMetadataArray(0);
+    private final Map<String, Integer> rowById = new HashMap<>();
+    private final Map<String, DocumentRows> documentById = new HashMap<>();
+    private volatile DocumentRows[] documents = new DocumentRows[0];
+    private volatile int documentCount;
+    private volatile State state = new State(0, new BitSet());
+    private long contentBytes;
+    private volatile HnswIndex graph;
+    private volatile IvfPqIndex ivf;
+    private volatile Bm25Index lexical;
+
+    public VectorIndex(String knowledgeBaseId) {
+        this(knowledgeBaseId, StorageMode.FLOAT32);
+    }
+
+    public VectorIndex(String knowledgeBaseId, StorageMode storageMode) {
+        this.knowledgeBaseId = knowledgeBaseId;
+        this.storageMode = storageMode;
+    }
+
+    /**
+     * 从向量段加载：FLOAT32 复制映射数据到堆内矩阵，INT8 量化后保留映射作为原始向量来源
+     */
+    public static VectorIndex fromSegment(VectorSegment segment, StorageMode storageMode) {
+        VectorIndex index = new VectorIndex(segment.getKnowledgeBaseId(), storageMode);
+        index.dimension = segment.dimension();
+        if (storageMode == StorageMode.INT8) {
+            index.raw = new RawRows(segment, new float[0][]);
+        }
+        index.ensureCapacity(segment.size());
+
+        BitSet deleted = new BitSet();
+        float[] row = new float[segment.dimension()];
+        for (int i = 0; i < segment.size(); i++) {
+            VectorSegment.Entry entry = segment.entry(i);
+            segment.readVector(i, row);
+            if (entry.isDeleted()) {
+                deleted.set(i);
+            } else {
+                Integer previous = index.rowById.put(entry.getId(), i);
+                if (previous != null) {
+                    deleted.set(previous);
+                }
+            }
+            index.writeRow(i, entry.getId(), entry.getContent(), row, entry.getMetadata());
+        }
+        index.state = new State(segment.size(), deleted);
+        return index;
+    }
+
+    /**
+     * 追加向量，同ID的旧行会被标记删除
+     */
+    public void add(List<VectorData> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        if (dimension == 0) {
+            dimension = rows.get(0).getEmbedding().length;
+        }
+        for (VectorData row : rows) {
+            if (row.getEmbedding().length != dimension) {
+                throw new IllegalArgumentException("向量维度不匹配: " + row.getId()
+                        + " (" + row.getEmbedding().length + " != " + dimension + ")");
+            }
+        }
+
+        State current = state;
+        ensureCapacity(current.size + rows.size());
+        BitSet deleted = current.deleted;
+        int size = current.size;
+        for (VectorData row : rows) {
+            Integer previous = rowById.put(row.getId(), size);
+            if (previous != null) {
+                if (deleted == current.deleted) {
+                    deleted = (BitSet) current.deleted.clone();
+                }
+                deleted.set(previous);
+            }
+            writeRow(size++, row.getId(), row.getContent(), row.getEmbedding(), row.getMetadata());
+        }
+        state = new State(size, deleted);
+    }
+
+    /**
+     * 删除指定ID的向量，返回实际删除的行数
+     */
+    public int delete(Collection<String> vectorIds) {
+        State current = state;
+        BitSet deleted = null;
+        int removed = 0;
+        for (String id : vectorIds) {
+            Integer row = rowById.remove(id);
+            if (row == null) {
+                continue;
+            }
+            if (deleted == null) {
+                deleted = (BitSet) current.deleted.clone();
+            }
+            deleted.set(row);
+            removed++;
+        }
+        if (deleted != null) {
+            state = new State(current.size, deleted);
+        }
+        return removed;
+    }
+
+    /**
+     * 丢弃墓碑行，返回紧凑后的新索引（行号改变，不携带HNSW图、IVF-PQ索引和BM25索引）
+     */
+    public VectorIndex compact() {
+        State current = state;
+        VectorIndex compacted = new VectorIndex(knowledgeBaseId, storageMode);
+        compacted.dimension = dimension;
+        compacted.ensureCapacity(current.size - current.deletedCount);
+
+        int size = 0;
+        float[] row = new float[dimension];
+        for (int i = 0; i < current.size; i++) {
+            if (!current.deleted.get(i)) {
+                readVector(i, row);
+                compacted.rowById.put(ids[i], size);
+                compacted.writeRow(size++, ids[i], contents[i], row, metadata[i]);
+            }
+        }
+        compacted.state = new State(size, new BitSet());
+        return compacted;
+    }
+
+    /**
+     * 段文件落盘后挂载为原始向量来源，释放INT8模式下暂存的新行
+     */
+    public void attachSegment(VectorSegment segment) {
+        if (storageMode != StorageMode.INT8) {
+            return;
+        }
+        if (segment.size() != state.size) {
+            throw new IllegalStateException("向量段行数与索引不一致: " + knowledgeBaseId);
+        }
+        raw = new RawRows(segment, new float[0][]);
+    }
+
+    /**
+     * 计算查询向量与指定行的相似度；INT8 模式下为量化近似值
+     */
+    public float score(int row, QueryVector query) {
+        if (storageMode == StorageMode.INT8) {
+            int dot = SCORER.dotInt8(query.codes(), 0, codes, row * dimension, dimension);
+            return dot * query.scale() * scales[row];
+        }
+        return SCORER.dot(query.values(), 0, vectors, row * dimension, dimension);
+    }
+
+    /**
+     * 使用原始 float 向量计算精确相似度（用于量化结果精排）
+     */
+    public float exactScore(int row, QueryVector query, float[] scratch) {
+        if (storageMode != StorageMode.INT8) {
+            return score(row, query);
+        }
+        readVector(row, scratch);
+        return SCORER.dot(query.values(), 0, scratch, 0, dimension);
+    }
+
+    /**
+     * 读取一行归一化后的原始向量到目标数组
+     */
+    public void readVector(int row, float[] target) {
+        if (storageMode == StorageMode.FLOAT32) {
+            System.arraycopy(vectors, row * dimension, target, 0, dimension);
+            return;
+        }
+
+        RawRows source = raw;
+        int segmentRows = source.segmentRows();
+        if (row < segmentRows) {
+            // 旧版段文件中的向量可能未归一化
+            source.segment.readVector(row, target);
+            normalizeInPlace(target, 0, dimension);
+        } else {
+            System.arraycopy(source.pending[row - segmentRows], 0, target, 0, dimension);
+        }
+    }
+
+    /**
+     * 返回 L2 归一化后的副本，零向量原样返回
+     */
+    public static float[] normalize(float[] vector) {
+        float[] normalized = vector.clone();
+        normalizeInPlace(normalized, 0, normalized.length);
+        return normalized;
+    }
+
+    private static void normalizeInPlace(float[] data, int offset, int length) {
+        double norm = 0.0;
+        for (int i = offset; i < offset + length; i++) {
+            norm += (double) data[i] * data[i];
+        }
+        if (norm == 0.0) {
+            return;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = offset; i < offset + length; i++) {
+            data[i] *= scale;
+        }
+    }
+
+    /**
+     * 估算占用的堆内存字节数（INT8 模式下映射的段文件不计入）
+     */
+    public long estimatedBytes() {
+        int size = state.size;
+        long vectorBytes = storageMode == StorageMode.INT8
+                ? codes.length + (long) scales.length * Float.BYTES
+                        + (long) Math.max(size - raw.segmentRows(), 0) * dimension * Float.BYTES
+                : (long) vectors.length * Float.BYTES;
+        HnswIndex currentGraph = graph;
+        IvfPqIndex currentIvf = ivf;
+        Bm25Index currentLexical = lexical;
+        return vectorBytes + contentBytes + (long) size * ROW_OVERHEAD_BYTES
+                + (currentGraph != null ? currentGraph.estimatedBytes() : 0L)
+                + (currentIvf != null ? currentIvf.estimatedBytes() : 0L)
+                + (currentLexical != null ? currentLexical.estimatedBytes() : 0L);
+    }
+
+    /**
+     * 求满足过滤条件的行号位图：先逐个文档判断条件，再合并命中文档的行号。
+     * 代价与文档数和命中行数成正比；位图不排除墓碑行，只包含调用时已发布的行。
+     * 过滤条件为空时返回 null，表示不限制
+     */
+    public BitSet matchingRows(SearchFilter filter) {
+        if (filter == null || filter.isEmpty()) {
+            return null;
+        }
+        int limit = state.size;
+        int count = documentCount;
+        DocumentRows[] table = documents;
+        BitSet matched = new BitSet(limit);
+        for (int d = 0; d < count; d++) {
+            DocumentRows document = table[d];
+            if (!filter.matches(document.documentId, document.tags, document.category, document.createdAt)) {
+                continue;
+            }
+            int rowCount = document.count;
+            int[] rows = document.rows;
+            for (int i = 0; i < rowCount; i++) {
+                if (rows[i] < limit) {
+                    matched.set(rows[i]);
+                }
+            }
+        }
+        return matched;
+    }
+
+    public HnswIndex getGraph() { return graph; }
+    public void setGraph(HnswIndex graph) { this.graph = graph; }
+    public IvfPqIndex getIvf() { return ivf; }
+    public void setIvf(IvfPqIndex ivf) { this.ivf = ivf; }
+    public Bm25Index getLexical() { return lexical; }
+    public void setLexical(Bm25Index lexical) { this.lexical = lexical; }
+
+    public String getKnowledgeBaseId() { return knowledgeBaseId; }
+    public StorageMode getStorageMode() { return storageMode; }
+    public int dimension() { return dimension; }
+    public int size() { return state.size; }
+    public int liveCount() { State current = state; return current.size - current.deletedCount; }
+    public int deletedCount() { return state.deletedCount; }
+    public boolean isDeleted(int row) { return state.deleted.get(row); }
+    public String id(int row) { return ids[row]; }
+    public String content(int row) { return contents[row]; }
+    public Map<String, Object> metadata(int row) { return metadata[row]; }
+
+    /**
+     * 写入一行数据；行号不小于已发布的行数，状态发布前对读线程不可见
+     */
+    private void writeRow(int row, String id, String content, float[] embedding, Map<String, Object> rowMetadata) {
+        int offset = row * dimension;
+        if (storageMode == StorageMode.INT8) {
+            float[] normalized = normalize(embedding);
+            scales[row] = Int8Quantizer.quantize(normalized, 0, dimension, codes, offset);
+            RawRows source = raw;
+            int pendingRow = row - source.segmentRows();
+            if (pendingRow >= 0) {
+                if (pendingRow >= source.pending.length) {
+                    source = new RawRows(source.segment,
+                            Arrays.copyOf(source.pending, Math.max(INITIAL_CAPACITY, pendingRow * 3 / 2 + 1)));
+                    raw = source;
+                }
+                source.pending[pendingRow] = normalized;
+            }
+        } else {
+            float[] matrix = vectors;
+            System.arraycopy(embedding, 0, matrix, offset, dimension);
+            normalizeInPlace(matrix, offset, dimension);
+        }
+        ids[row] = id;
+        contents[row] = content;
+        metadata[row] = rowMetadata;
+        contentBytes += content != null ? (long) content.length() * 2 : 0;
+        documentOf(rowMetadata).add(row);
+    }
+
+    /**
+     * 取行所属文档的表项；首次出现或过滤属性与现有表项不同时按该行元数据新建并替换，
+     * 旧表项仍保留属性未变时写入的行（通常已被删除），紧凑时一并清理。没有 documentId 的行归入ID为 null 的表项
+     */
+    private DocumentRows documentOf(Map<String, Object> rowMetadata) {
+        Object documentId = rowMetadata != null ? rowMetadata.get("documentId") : null;
+        String key = documentId != null ? documentId.toString() : null;
+        List<String> tags = tagsOf(rowMetadata);
+        Object categoryValue = rowMetadata != null ? rowMetadata.get("category") : null;
+        String category = categoryValue != null ? categoryValue.toString() : null;
+        Object createdAtValue = rowMetadata != null ? rowMetadata.get("createdAt") : null;
+        Long createdAt = createdAtValue instanceof Number ? ((Number) createdAtValue).longValue() : null;
+
+        DocumentRows document = documentById.get(key);
+        if (document != null && document.hasAttributes(tags, category, createdAt)) {
+            return document;
+        }
+
+        document = new DocumentRows(key, tags, category, createdAt);
+        documentById.put(key, document);
+
+        DocumentRows[] table = documents;
+        int count = documentCount;
+        if (count == table.length) {
+            table = Arrays.copyOf(table, Math.max(16, count * 2));
+            documents = table;
+        }
+        table[count] = document;
+        documentCount = count + 1;
+        return document;
+    }
+
+    /**
+     * 标签可能是列表（JSON 反序列化结果）或逗号分隔的字符串
+     */
+    private static List<String> tagsOf(Map<String, Object> rowMetadata) {
+        Object tags = rowMetadata != null ? rowMetadata.get("tags") : null;
+        if (tags == null) {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        if (tags instanceof Collection) {
+            for (Object tag : (Collection<?>) tags) {
+                if (tag != null) {
+                    result.add(tag.toString().trim());
+                }
+            }
+        } else {
+            for (String tag : tags.toString().split(",")) {
+                result.add(tag.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 扩容时复制到新数组再整体替换，读线程持有的旧数组仍包含其可见的全部行
+     */
+    private void ensureCapacity(int rows) {
+        if (rows <= capacity) {
+            return;
+        }
+        if ((long) rows * dimension > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("知识库向量数量超出单索引容量: " + knowledgeBaseId);
+        }
+        int grown = (int) Math.min(Math.max(rows, Math.max(INITIAL_CAPACITY, capacity * 3L / 2)),
+                (Integer.MAX_VALUE - 8) / Math.max(dimension, 1));
+        if (storageMode == StorageMode.INT8) {
+            codes = Arrays.copyOf(codes, grown * dimension);
+            scales = Arrays.copyOf(scales, grown);
+        } else {
+            vectors = Arrays.copyOf(vectors, grown * dimension);
+        }
+        ids = Arrays.copyOf(ids, grown);
+        contents = Arrays.copyOf(contents, grown);
+        metadata = Arrays.copyOf(metadata, grown);
+        capacity = grown;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object>[] newMetadataArray(int length) {
+        return (Map<String, Object>[]) new Map[length];
+    }
+}
@@ -0,0 +1,89 @@
+package com.ai.assistant.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 常驻向量索引缓存
+ *
+ * 按最近访问顺序维护各知识库的 {@link VectorIndex}，总占用超过内存预算时淘汰最久未访问的索引。
+ * 刚放入或刚更新的索引不会被立即淘汰，即使它本身超出预算。
+ */
+@Slf4j
+public class VectorIndexCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, VectorIndex> indexes = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> sizes = new HashMap<>();
+    private long usedBytes;
+
+    public VectorIndexCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized VectorIndex get(String knowledgeBaseId) {
+        return indexes.get(knowledgeBaseId);
+    }
+
+    /**
+     * 放入或替换索引，并按预算淘汰
+     */
+    public synchronized void put(String knowledgeBaseId, VectorIndex index) {
+        indexes.put(knowledgeBaseId, index);
+        track(knowledgeBaseId, index);
+        evict(knowledgeBaseId);
+    }
+
+    /**
+     * 索引内容被原地修改后重新计算占用
+     */
+    public synchronized void updated(String knowledgeBaseId) {
+        VectorIndex index = indexes.get(knowledgeBaseId);
+        if (index != null) {
+            track(knowledgeBaseId, index);
+            evict(knowledgeBaseId);
+        }
+    }
+
+    public synchronized VectorIndex remove(String knowledgeBaseId) {
+        VectorIndex removed = indexes.remove(knowledgeBaseId);
+        Long size = sizes.remove(knowledgeBaseId);
+        if (size != null) {
+            usedBytes -= size;
+        }
+        return removed;
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int size() {
+        return indexes.size();
+    }
+
+    private void track(String knowledgeBaseId, VectorIndex index) {
+        long bytes = index.estimatedBytes();
+        Long previous = sizes.put(knowledgeBaseId, bytes);
+        usedBytes += bytes - (previous != null ? previous : 0L);
+    }
+
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, VectorIndex>> it = indexes.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, VectorIndex> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            Long size = sizes.remove(eldest.getKey());
+            usedBytes -= size != null ? size : 0L;
+            log.info("内存预算不足，淘汰知识库索引: {}, 释放 {} MB", eldest.getKey(),
+                    (size != null ? size : 0L) / (1024 * 1024));
+        }
+    }
+}
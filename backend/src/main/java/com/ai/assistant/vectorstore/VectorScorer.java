@@ -0,0 +1,24 @@
+package com.ai.assistant.vectorstore;
+
+/**
+ * 向量打分内核
+ *
+ * 检索热路径上的点积计算，由 {@link VectorScorers} 在启动时选择 SIMD 或标量实现。
+ */
+public interface VectorScorer {
+
+    /**
+     * 计算 a[aOffset, aOffset + length) 与 b[bOffset, bOffset + length) 的点积
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * 计算两段 int8 量化码的整数点积
+     */
+    int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    /**
+     * 实现名称，用于启动日志
+     */
+    String name();
+}
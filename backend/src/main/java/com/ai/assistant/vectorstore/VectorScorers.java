@@ -0,0 +1,83 @@
+package com.ai.assistant.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Random;
+
+/**
+ * 启动时选择打分内核
+ *
+ * JVM 启用了 jdk.incubator.vector 模块且未通过 {@code -Dvectorstore.simd=false} 关闭时使用 SIMD 实现，
+ * 并用一组样例校验其结果与标量实现一致（浮点在容差内、int8 完全相等）；否则回退到标量实现。
+ */
+@Slf4j
+public final class VectorScorers {
+
+    private static final String SIMD_PROPERTY = "vectorstore.simd";
+    private static final String PANAMA_SCORER = "com.ai.assistant.vectorstore.PanamaVectorScorer";
+    private static final float TOLERANCE = 1e-4f;
+
+    private static final VectorScorer DEFAULT = select();
+
+    private VectorScorers() {}
+
+    public static VectorScorer get() {
+        return DEFAULT;
+    }
+
+    private static VectorScorer select() {
+        VectorScorer scalar = new ScalarVectorScorer();
+        if (!Boolean.parseBoolean(System.getProperty(SIMD_PROPERTY, "true"))) {
+            log.info("向量打分内核: {}（SIMD 已通过 -D{}=false 关闭）", scalar.name(), SIMD_PROPERTY);
+            return scalar;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.info("向量打分内核: {}（未启用 --add-modules jdk.incubator.vector）", scalar.name());
+            return scalar;
+        }
+
+        try {
+            VectorScorer simd = (VectorScorer) Class.forName(PANAMA_SCORER).getDeclaredConstructor().newInstance();
+            if (!agrees(simd, scalar)) {
+                log.warn("SIMD 内核结果与标量内核不一致，回退到 {}", scalar.name());
+                return scalar;
+            }
+            log.info("向量打分内核: {}", simd.name());
+            return simd;
+        } catch (Throwable e) {
+            log.warn("加载 SIMD 内核失败，回退到 {}: {}", scalar.name(), e.toString());
+            return scalar;
+        }
+    }
+
+    /**
+     * 用固定种子的随机向量核对两个内核的结果（含非整倍数长度和非零偏移）
+     */
+    private static boolean agrees(VectorScorer candidate, VectorScorer reference) {
+        Random random = new Random(7);
+        for (int length : new int[] {1, 7, 64, 1023, 1024}) {
+            float[] a = new float[length + 3];
+            float[] b = new float[length + 5];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = (float) random.nextGaussian() / (float) Math.sqrt(length);
+            }
+            for (int i = 0; i < b.length; i++) {
+                b[i] = (float) random.nextGaussian() / (float) Math.sqrt(length);
+            }
+            float expected = reference.dot(a, 3, b, 5, length);
+            float actual = candidate.dot(a, 3, b, 5, length);
+            if (Math.abs(expected - actual) > TOLERANCE * Math.max(1.0f, Math.abs(expected))) {
+                return false;
+            }
+
+            byte[] codesA = new byte[length + 3];
+            byte[] codesB = new byte[length + 5];
+            random.nextBytes(codesA);
+            random.nextBytes(codesB);
+            if (reference.dotInt8(codesA, 3, codesB, 5, length) != candidate.dotInt8(codesA, 3, codesB, 5, length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
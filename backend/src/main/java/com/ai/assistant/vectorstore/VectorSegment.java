@@ -0,0 +1,332 @@
+package com.ai.assistant.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 知识库向量段文件
+ *
+ * 每个知识库的一代段数据由一对文件组成：
+ * <ul>
+ *   <li>{@code <kbId>.<代号>.vec}：16 字节头（魔数、版本、维度、行数）+ 连续的 float32 行（小端序）</li>
+ *   <li>{@code <kbId>.<代号>.meta.json}：与行一一对应的 id / content / metadata / 墓碑标记旁路文件</li>
+ * </ul>
+ * 指针文件 {@code <kbId>.segment} 记录当前代号。写入时先写新一代的两个文件并 fsync，再 fsync 目录，
+ * 然后以一次原子重命名切换指针并再次 fsync 目录；任一步骤前崩溃，指针仍指向完整的上一代。
+ * 没有指针文件时兼容读取旧版的 {@code <kbId>.vec} / {@code <kbId>.meta.json}。
+ * 向量部分通过 {@link MappedByteBuffer} 只读映射，加载到 {@link VectorIndex} 时按行批量复制，不做任何解析。
+ * 墓碑行原样保留，保证文件行号与内存索引、HNSW 图节点一致，紧凑时才真正丢弃。
+ */
+public final class VectorSegment {
+
+    public static final String VECTOR_SUFFIX = ".vec";
+    public static final String META_SUFFIX = ".meta.json";
+    public static final String POINTER_SUFFIX = ".segment";
+
+    private static final int MAGIC = 0x53434556; // "VECS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final String knowledgeBaseId;
+    private final long generation;
+    private final int dimension;
+    private final int size;
+    private final FloatBuffer vectors;
+    private final List<Entry> entries;
+
+    /**
+     * 旁路文件中的行记录
+     */
+    public static class Entry {
+        private String id;
+        private String content;
+        private Map<String, Object> metadata;
+        private boolean deleted;
+
+        public Entry() {}
+
+        public Entry(String id, String content, Map<String, Object> metadata, boolean deleted) {
+            this.id = id;
+            this.content = content;
+            this.metadata = metadata;
+            this.deleted = deleted;
+        }
+
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public String getContent() { return content; }
+        public void setContent(String content) { this.content = content; }
+        public Map<String, Object> getMetadata() { return metadata; }
+        public void setMetadata(Map<String, Object> metadata) { this.metadata = metadata; }
+        public boolean isDeleted() { return deleted; }
+        public void setDeleted(boolean deleted) { this.deleted = deleted; }
+    }
+
+    private VectorSegment(String knowledgeBaseId, long generation, int dimension, int size, FloatBuffer vectors,
+                          List<Entry> entries) {
+        this.knowledgeBaseId = knowledgeBaseId;
+        this.generation = generation;
+        this.dimension = dimension;
+        this.size = size;
+        this.vectors = vectors;
+        this.entries = entries;
+    }
+
+    private static Path vectorFile(Path dir, String knowledgeBaseId, long generation) {
+        return generation > 0
+                ? dir.resolve(knowledgeBaseId + "." + generation + VECTOR_SUFFIX)
+                : dir.resolve(knowledgeBaseId + VECTOR_SUFFIX);
+    }
+
+    private static Path metaFile(Path dir, String knowledgeBaseId, long generation) {
+        return generation > 0
+                ? dir.resolve(knowledgeBaseId + "." + generation + META_SUFFIX)
+                : dir.resolve(knowledgeBaseId + META_SUFFIX);
+    }
+
+    public static Path pointerFile(Path dir, String knowledgeBaseId) {
+        return dir.resolve(knowledgeBaseId + POINTER_SUFFIX);
+    }
+
+    public static boolean exists(Path dir, String knowledgeBaseId) {
+        return Files.exists(pointerFile(dir, knowledgeBaseId)) || Files.exists(vectorFile(dir, knowledgeBaseId, 0));
+    }
+
+    /**
+     * 打开当前一代的段文件，段不存在时返回 null；指针指向的文件缺失或内容不一致时抛出异常
+     */
+    public static VectorSegment open(Path dir, String knowledgeBaseId, ObjectMapper objectMapper) throws IOException {
+        long generation = currentGeneration(dir, knowledgeBaseId);
+        Path vecPath = vectorFile(dir, knowledgeBaseId, generation);
+        Path metaPath = metaFile(dir, knowledgeBaseId, generation);
+        if (generation == 0 && !Files.exists(vecPath)) {
+            return null;
+        }
+        if (!Files.exists(vecPath) || !Files.exists(metaPath)) {
+            throw new IOException("向量段文件缺失: " + knowledgeBaseId + " 第 " + generation + " 代");
+        }
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(vecPath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("向量段文件超过 2GB，无法映射: " + vecPath);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mapped.limit() < HEADER_BYTES || mapped.getInt(0) != MAGIC) {
+            throw new IOException("无效的向量段文件: " + vecPath);
+        }
+        int version = mapped.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("不支持的向量段版本 " + version + ": " + vecPath);
+        }
+        int dimension = mapped.getInt(8);
+        int size = mapped.getInt(12);
+        long expectedBytes = HEADER_BYTES + (long) size * dimension * Float.BYTES;
+        if (mapped.limit() != expectedBytes) {
+            throw new IOException("向量段文件长度不一致: " + vecPath);
+        }
+
+        List<Entry> entries = objectMapper.readValue(metaPath.toFile(), new TypeReference<List<Entry>>() {});
+        if (entries.size() != size) {
+            throw new IOException("向量段与旁路文件行数不一致: " + knowledgeBaseId
+                    + " (" + size + " / " + entries.size() + ")");
+        }
+
+        FloatBuffer vectors = mapped.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        return new VectorSegment(knowledgeBaseId, generation, dimension, size, vectors, entries);
+    }
+
+    /**
+     * 将索引的全部行写为新一代段文件并切换指针，返回时新一代已持久化；之后删除旧代文件。返回新一代的代号
+     */
+    public static long write(Path dir, VectorIndex index, ObjectMapper objectMapper) throws IOException {
+        Files.createDirectories(dir);
+        String knowledgeBaseId = index.getKnowledgeBaseId();
+        int dimension = index.dimension();
+        long generation = currentGeneration(dir, knowledgeBaseId) + 1;
+
+        List<Entry> entries = new ArrayList<>(index.size());
+        float[] row = new float[dimension];
+        Path vecPath = vectorFile(dir, knowledgeBaseId, generation);
+        try (FileChannel channel = FileChannel.open(vecPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(WRITE_BUFFER_BYTES, HEADER_BYTES + dimension * Float.BYTES))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(index.size());
+
+            for (int i = 0; i < index.size(); i++) {
+                if (buffer.remaining() < dimension * Float.BYTES) {
+                    flush(channel, buffer);
+                }
+                index.readVector(i, row);
+                for (float v : row) {
+                    buffer.putFloat(v);
+                }
+                entries.add(new Entry(index.id(i), index.content(i), index.metadata(i), index.isDeleted(i)));
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        }
+
+        Path metaPath = metaFile(dir, knowledgeBaseId, generation);
+        objectMapper.writeValue(metaPath.toFile(), entries);
+        syncFile(metaPath);
+        syncDirectory(dir);
+
+        Path pointer = pointerFile(dir, knowledgeBaseId);
+        Path pointerTmp = dir.resolve(knowledgeBaseId + POINTER_SUFFIX + ".tmp");
+        try (FileChannel channel = FileChannel.open(pointerTmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Long.toString(generation).getBytes(StandardCharsets.US_ASCII));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(pointerTmp, pointer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+
+        // 新一代已生效，旧代文件删除失败不影响正确性，下次写入时再清理
+        for (Path file : generationFiles(dir, knowledgeBaseId)) {
+            if (!file.equals(vecPath) && !file.equals(metaPath)) {
+                Files.deleteIfExists(file);
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * 删除段文件
+     */
+    public static void delete(Path dir, String knowledgeBaseId) throws IOException {
+        Files.deleteIfExists(pointerFile(dir, knowledgeBaseId));
+        for (Path file : generationFiles(dir, knowledgeBaseId)) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * 指针文件记录的当前代号，没有指针文件（尚未写入或旧版文件）时为 0
+     */
+    private static long currentGeneration(Path dir, String knowledgeBaseId) throws IOException {
+        Path pointer = pointerFile(dir, knowledgeBaseId);
+        if (!Files.exists(pointer)) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(pointer), StandardCharsets.US_ASCII).trim();
+        try {
+            long generation = Long.parseLong(content);
+            if (generation <= 0) {
+                throw new NumberFormatException(content);
+            }
+            return generation;
+        } catch (NumberFormatException e) {
+            throw new IOException("无效的向量段指针文件: " + pointer);
+        }
+    }
+
+    /**
+     * 知识库的全部各代段文件，含旧版不带代号的文件
+     */
+    private static List<Path> generationFiles(Path dir, String knowledgeBaseId) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        String prefix = knowledgeBaseId + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, knowledgeBaseId + ".*")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                String rest = name.substring(prefix.length());
+                String generation;
+                if (rest.endsWith(VECTOR_SUFFIX.substring(1))) {
+                    generation = rest.substring(0, rest.length() - VECTOR_SUFFIX.length() + 1);
+                } else if (rest.endsWith(META_SUFFIX.substring(1))) {
+                    generation = rest.substring(0, rest.length() - META_SUFFIX.length() + 1);
+                } else {
+                    continue;
+                }
+                // 旧版文件没有代号；带代号时形如 "12."
+                if (generation.isEmpty() || generation.matches("\\d+\\.")) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static void syncFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * fsync 目录使其中的文件创建和重命名持久化；部分平台（如 Windows）不支持打开目录，忽略
+     */
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 不支持目录 fsync 的平台上依赖文件系统自身的重命名语义
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public String getKnowledgeBaseId() {
+        return knowledgeBaseId;
+    }
+
+    /**
+     * 段文件的代号，旧版不带代号的文件为 0
+     */
+    public long generation() {
+        return generation;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Entry entry(int row) {
+        return entries.get(row);
+    }
+
+    /**
+     * 读取一行向量到目标数组
+     */
+    public void readVector(int row, float[] target) {
+        vectors.get(row * dimension, target, 0, dimension);
+    }
+}
@@ -0,0 +1,232 @@
+package com.ai.assistant.vectorstore;
+
+import com.ai.assistant.service.CustomVectorStoreService.VectorData;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 知识库向量的追加式预写日志
+ *
+ * 每个知识库对应一个 {@code <kbId>.wal} 文件，新增和删除先以记录形式追加并 fsync，再修改内存索引，
+ * 写入成本只与新数据成正比。后台定期把内存索引整体写回向量段（见 {@link VectorSegment}）后清空日志。
+ * <p>
+ * 记录格式：{@code [int 负载长度][int CRC32][负载]}，负载首字节为记录类型。
+ * 记录按向量ID而非行号描述变更，重放与内存紧凑、行号变化无关；已并入段文件的记录被重复重放时结果不变。
+ * 进程崩溃可能留下写了一半的尾部记录，重放时校验失败的尾部会被截断。
+ */
+@Slf4j
+public final class VectorWal implements Closeable {
+
+    public static final String FILE_SUFFIX = ".wal";
+
+    private static final byte TYPE_ADD = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private final FileChannel channel;
+    private final ObjectMapper objectMapper;
+
+    private VectorWal(FileChannel channel, ObjectMapper objectMapper) {
+        this.channel = channel;
+        this.objectMapper = objectMapper;
+    }
+
+    public static Path file(Path dir, String knowledgeBaseId) {
+        return dir.resolve(knowledgeBaseId + FILE_SUFFIX);
+    }
+
+    /**
+     * 打开（不存在时创建）日志文件用于追加
+     */
+    public static VectorWal open(Path dir, String knowledgeBaseId, ObjectMapper objectMapper) throws IOException {
+        Files.createDirectories(dir);
+        Path file = file(dir, knowledgeBaseId);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return new VectorWal(channel, objectMapper);
+    }
+
+    /**
+     * 追加一批新增向量，返回前已落盘
+     */
+    public synchronized void appendAdd(List<VectorData> rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_ADD);
+        out.writeInt(rows.size());
+        for (VectorData row : rows) {
+            writeString(out, row.getId());
+            writeString(out, row.getContent());
+            writeBytes(out, row.getMetadata() != null ? objectMapper.writeValueAsBytes(row.getMetadata()) : null);
+            float[] embedding = row.getEmbedding();
+            out.writeInt(embedding.length);
+            for (float v : embedding) {
+                out.writeFloat(v);
+            }
+        }
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * 追加一条删除记录，返回前已落盘
+     */
+    public synchronized void appendDelete(Collection<String> vectorIds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_DELETE);
+        out.writeInt(vectorIds.size());
+        for (String id : vectorIds) {
+            writeString(out, id);
+        }
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * 日志内容已并入向量段后清空
+     */
+    public synchronized void reset() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 将日志记录依次应用到索引，返回应用的记录数；校验失败的尾部记录被截断
+     */
+    public static int replay(Path dir, String knowledgeBaseId, ObjectMapper objectMapper,
+                             VectorIndex index) throws IOException {
+        Path file = file(dir, knowledgeBaseId);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int records = 0;
+        int validEnd = 0;
+        while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            apply(new DataInputStream(new ByteArrayInputStream(data, buffer.position(), length)),
+                    objectMapper, index);
+            buffer.position(buffer.position() + length);
+            validEnd = buffer.position();
+            records++;
+        }
+
+        if (validEnd < data.length) {
+            log.warn("知识库 {} 的预写日志尾部 {} 字节不完整，已截断", knowledgeBaseId, data.length - validEnd);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validEnd);
+                channel.force(true);
+            }
+        }
+        return records;
+    }
+
+    private static void apply(DataInputStream in, ObjectMapper objectMapper, VectorIndex index) throws IOException {
+        byte type = in.readByte();
+        int count = in.readInt();
+        if (type == TYPE_ADD) {
+            List<VectorData> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readString(in);
+                String content = readString(in);
+                byte[] metadataJson = readBytes(in);
+                Map<String, Object> metadata = metadataJson != null
+                        ? objectMapper.readValue(metadataJson, new TypeReference<Map<String, Object>>() {})
+                        : null;
+                float[] embedding = new float[in.readInt()];
+                for (int d = 0; d < embedding.length; d++) {
+                    embedding[d] = in.readFloat();
+                }
+                rows.add(new VectorData(id, content, embedding, metadata));
+            }
+            index.add(rows);
+        } else if (type == TYPE_DELETE) {
+            List<String> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(readString(in));
+            }
+            index.delete(ids);
+        } else {
+            throw new IOException("未知的预写日志记录类型: " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}